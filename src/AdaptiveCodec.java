@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * One-pass adaptive Huffman coding (the FGK algorithm). Encoder and
+ * decoder start from the same tiny tree and update it identically after
+ * every word, so no counts or header are needed and input is read once.
+ * <P>
+ * The tree starts with two leaves, PSEUDO_EOF and ESCAPE. A word not yet
+ * in the tree is coded as ESCAPE followed by its BITS_PER_WORD raw bits,
+ * and then gets a leaf of its own. Layout following the magic number
+ * HUFF_ADAPTIVE is just the codes, ending with PSEUDO_EOF.
+ * <P>
+ * Nodes are kept in arrays ordered by non-increasing weight, root first,
+ * with siblings next to each other (the sibling property). Children of
+ * internal node i are at myChild[i] and myChild[i] + 1; a leaf stores
+ * ~symbol instead, as in FlatHuffTree. When the root reaches MAX_WEIGHT
+ * every weight is halved and the tree rebuilt, which bounds code length
+ * and lets old statistics fade.
+ */
+
+public class AdaptiveCodec {
+
+	public static final int MAX_WEIGHT = 1 << 16;
+
+	private static final int ESCAPE = HuffProcessor.PSEUDO_EOF + 1;
+	private static final int SYMBOLS = ESCAPE + 1;
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private final int[] myWeight;
+	private final int[] myParent;
+	private final int[] myChild;
+	private final int[] myLeaf;
+	private int myNodes;
+
+	/**
+	 * Construct codec whose tree holds only PSEUDO_EOF and ESCAPE
+	 */
+	public AdaptiveCodec() {
+		myWeight = new int[2 * SYMBOLS - 1];
+		myParent = new int[2 * SYMBOLS - 1];
+		myChild = new int[2 * SYMBOLS - 1];
+		myLeaf = new int[SYMBOLS];
+		Arrays.fill(myLeaf, NONE);
+
+		myWeight[ROOT] = 2;
+		myParent[ROOT] = NONE;
+		myChild[ROOT] = 1;
+		for (int node = 1; node <= 2; node++) {
+			int sym = node == 1 ? HuffProcessor.PSEUDO_EOF : ESCAPE;
+			myWeight[node] = 1;
+			myParent[node] = ROOT;
+			myChild[node] = ~sym;
+			myLeaf[sym] = node;
+		}
+		myNodes = 3;
+	}
+
+	/**
+	 * Encode every word of in, then PSEUDO_EOF
+	 * @param in is the stream of words to compress, at a byte boundary
+	 * @param out is positioned just after the magic number
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		byte[] chunk = new byte[BulkEncoder.CHUNK_SIZE];
+		int read;
+		while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			for (int k = 0; k < read; k++) {
+				int sym = chunk[k] & 0xff;
+				if (myLeaf[sym] == NONE) {
+					writeCode(ESCAPE, out);
+					out.writeBits(HuffProcessor.BITS_PER_WORD, sym);
+					addLeaf(sym);
+				}
+				else {
+					writeCode(sym, out);
+				}
+				update(sym);
+			}
+		}
+		writeCode(HuffProcessor.PSEUDO_EOF, out);
+	}
+
+	/**
+	 * Decode words from in, writing each to out, until PSEUDO_EOF
+	 * @param in is positioned just after the magic number
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends early or is corrupt
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		while (true) {
+			int node = ROOT;
+			while (myChild[node] >= 0) {
+				int bit = in.readBits(1);
+				if (bit == -1) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				node = myChild[node] + bit;
+			}
+
+			int sym = ~myChild[node];
+			if (sym == HuffProcessor.PSEUDO_EOF) {
+				return;
+			}
+			if (sym == ESCAPE) {
+				sym = in.readBits(HuffProcessor.BITS_PER_WORD);
+				if (sym == -1) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				if (myLeaf[sym] != NONE) {
+					throw new HuffException("bad input, escape for a word already seen");
+				}
+				addLeaf(sym);
+			}
+			out.writeBits(HuffProcessor.BITS_PER_WORD, sym);
+			update(sym);
+		}
+	}
+
+	/**
+	 * Write the path from the root to sym's leaf
+	 */
+	private void writeCode(int sym, BitOutputStream out) {
+		long code = 0;
+		int length = 0;
+		for (int node = myLeaf[sym]; node != ROOT; node = myParent[node]) {
+			code |= (long) (node - myChild[myParent[node]]) << length;
+			length++;
+		}
+		out.writeLongBits(length, code);
+	}
+
+	/**
+	 * Split the lightest leaf into itself and a new leaf of weight 0 for sym
+	 */
+	private void addLeaf(int sym) {
+		int lightest = myNodes - 1;
+		int moved = myNodes;
+		int added = myNodes + 1;
+		myNodes += 2;
+
+		//the last node always is a leaf, since children follow their parent
+		myWeight[moved] = myWeight[lightest];
+		myChild[moved] = myChild[lightest];
+		myParent[moved] = lightest;
+		myLeaf[~myChild[moved]] = moved;
+
+		myWeight[added] = 0;
+		myChild[added] = ~sym;
+		myParent[added] = lightest;
+		myLeaf[sym] = added;
+
+		myChild[lightest] = moved;
+	}
+
+	/**
+	 * Add one to the weight of sym and of every node above it, first
+	 * swapping each node with the leader of its weight class so the
+	 * order stays non-increasing
+	 */
+	private void update(int sym) {
+		if (myWeight[ROOT] >= MAX_WEIGHT) {
+			rebuild();
+		}
+		int node = myLeaf[sym];
+		while (node != NONE) {
+			myWeight[node]++;
+			int leader = node;
+			while (leader > ROOT && myWeight[leader - 1] < myWeight[node]) {
+				leader--;
+			}
+			if (leader != node) {
+				swap(node, leader);
+				node = leader;
+			}
+			node = myParent[node];
+		}
+	}
+
+	/**
+	 * Exchange the subtrees at positions i and j; parents stay in place
+	 */
+	private void swap(int i, int j) {
+		adopt(myChild[i], j);
+		adopt(myChild[j], i);
+		int weight = myWeight[i];
+		myWeight[i] = myWeight[j];
+		myWeight[j] = weight;
+		int child = myChild[i];
+		myChild[i] = myChild[j];
+		myChild[j] = child;
+	}
+
+	/**
+	 * Point the leaf map or the children of child reference ref at node
+	 */
+	private void adopt(int ref, int node) {
+		if (ref < 0) {
+			myLeaf[~ref] = node;
+		}
+		else {
+			myParent[ref] = node;
+			myParent[ref + 1] = node;
+		}
+	}
+
+	/**
+	 * Halve every leaf weight, rounding up so no leaf drops to 0, and
+	 * rebuild the internal nodes bottom-up in weight order
+	 */
+	private void rebuild() {
+		//pack the leaves at the end, keeping their order
+		int j = myNodes - 1;
+		for (int i = j; i >= ROOT; i--) {
+			if (myChild[i] < 0) {
+				myChild[j] = myChild[i];
+				myWeight[j] = (myWeight[i] + 1) / 2;
+				j--;
+			}
+		}
+
+		//join the two lightest unjoined nodes and slide the parent into place by weight
+		for (int i = myNodes - 2; j >= ROOT; i -= 2, j--) {
+			int weight = myWeight[i] + myWeight[i + 1];
+			int k = j + 1;
+			while (weight < myWeight[k]) {
+				k++;
+			}
+			k--;
+			System.arraycopy(myWeight, j + 1, myWeight, j, k - j);
+			System.arraycopy(myChild, j + 1, myChild, j, k - j);
+			myWeight[k] = weight;
+			myChild[k] = i;
+		}
+
+		myParent[ROOT] = NONE;
+		for (int i = ROOT; i < myNodes; i++) {
+			adopt(myChild[i], i);
+		}
+	}
+}
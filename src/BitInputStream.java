@@ -4,6 +4,19 @@
  *	to quickly process read calls.  Runtime is approximately
  *	100 times faster than previous iteration built on java.io.
  *
+ *	Table-driven decoders can look at upcoming bits with peekBits
+ *	and then consume a variable number of them with skipBits.  The
+ *	bit buffer is refilled with one 8-byte load whenever it holds
+ *	fewer than MIN_BUFFERED_BITS, so a peek never waits on a refill
+ *	loop.
+ *
+ *	reset() goes back to where the stream started without holding the
+ *	input on the heap: files are re-read from their channel position
+ *	and byte arrays are rewound. Any other stream is read as it comes
+ *	unless enableReset() is called before the first read; from then on
+ *	it is recorded by a SpillInputStream, which moves to a temporary
+ *	file past its memory limit.
+ *
  *	@contributor Owen Astrachan
  *	@author Brian Lavallee
  *	@date 10 April 2016
@@ -15,8 +28,11 @@ import java.nio.channels.*;
 
 public class BitInputStream extends InputStream {
 	
+	public static final int MIN_BUFFERED_BITS = 57;
+	
 	private static final int BYTE_SIZE = 8;
 	private static final int INT_SIZE = 32;
+	private static final int LONG_SIZE = 64;
 	private static final int BIT_BUFFER_SIZE = 8;
 	private static final int BUFFER_SIZE = 8192;
 	
@@ -31,9 +47,13 @@ public class BitInputStream extends InputStream {
 			0x3fffffffffffffffl, 0x7fffffffffffffffl, 0xffffffffffffffffl };
 	
 	private InputStream source;
+	private FileChannel file;
+	private long start;
+	private SpillInputStream spill;
+	private boolean resettable;
 	private ReadableByteChannel input;
 	private ByteBuffer buffer;
-	private int bitsRead, available, limit;
+	private int bitsRead, available;
 	private long bitBuffer;
 	
 	public BitInputStream(String filePath) {
@@ -54,30 +74,81 @@ public class BitInputStream extends InputStream {
 	}
 	
 	private void initialize(InputStream in) {
-		source = new BufferedInputStream(in);
-		source.mark(Integer.MAX_VALUE);
+		file = null;
+		if (in instanceof FileInputStream) {
+			//a pipe or FIFO has a channel too, but one that cannot seek, so it is read like any other stream
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			try {
+				start = channel.position();
+				file = channel;
+			}
+			catch (IOException io) {
+				file = null;
+			}
+		}
+		if (file != null) {
+			source = in;
+			input = file;
+			resettable = true;
+		}
+		else if (in instanceof ByteArrayInputStream) {
+			source = in;
+			source.mark(Integer.MAX_VALUE);
+			input = Channels.newChannel(source);
+			resettable = true;
+		}
+		else {
+			source = in;
+			input = Channels.newChannel(source);
+			resettable = false;
+		}
 		bitsRead = available = 0;
 		bitBuffer = 0;
-		limit = BUFFER_SIZE;
-		input = Channels.newChannel(source);
 		buffer = ByteBuffer.allocate(BUFFER_SIZE);
-		buffer.position(BUFFER_SIZE);
+		buffer.limit(0);
 	}
 	
 	public int bitsRead() {
 		return bitsRead;
 	}
 	
+	/**
+	 * Make reset() possible on a stream that is neither a file nor a
+	 * byte array by recording what is read from now on. Formats that
+	 * read their input twice call this; the others read a live stream
+	 * without recording it.
+	 * @throws HuffException if anything has been read already
+	 */
+	public void enableReset() {
+		if (resettable) {
+			return;
+		}
+		if (bitsRead > 0) {
+			throw new HuffException("enableReset must be called before the first read");
+		}
+		spill = new SpillInputStream(source);
+		source = spill;
+		input = Channels.newChannel(source);
+		resettable = true;
+	}
+	
 	public void reset() {
+		if (!resettable) {
+			throw new HuffException("stream cannot be reset, call enableReset before reading");
+		}
 		try {
-			source.reset();
-			source.mark(Integer.MAX_VALUE);
+			if (file != null) {
+				file.position(start);
+			}
+			else if (spill != null) {
+				spill.rewind();
+			}
+			else {
+				source.reset();
+			}
 			bitsRead = available = 0;
 			bitBuffer = 0;
-			limit = BUFFER_SIZE;
-			input = Channels.newChannel(source);
-			buffer = ByteBuffer.allocate(BUFFER_SIZE);
-			buffer.position(BUFFER_SIZE);
+			buffer.limit(0);
 		}
 		catch (IOException io) {
 			throw new RuntimeException(io);
@@ -104,52 +175,144 @@ public class BitInputStream extends InputStream {
 		if (numBits > INT_SIZE || numBits < 1) {
 			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
 		}
-			
-		int value = 0;
 		
 		if (numBits > available) {
-			value = (int) bitBuffer;
-			numBits -= available;
-			value <<= numBits;
-			if (!fillBitBuffer()) {
+			refill();
+			if (numBits > available) {
 				return -1;
 			}
 		}
 		
-		if (numBits > available) {
-			return -1;
-		}
-		
-		value |= bitBuffer >>> (available - numBits);
-		bitBuffer &= bitMask[available - numBits];
 		available -= numBits;
+		int value = (int) (bitBuffer >>> available);
+		bitBuffer &= bitMask[available];
 		//bitsRead += numBits;
 		return value;
 	}
 	
-	private boolean fillBitBuffer() {
-		if (!buffer.hasRemaining()) {
-			if (!fillBuffer()) {
-				return false;
+	/**
+	 * Reads up to length whole bytes into bytes[offset..], copying
+	 * straight from the underlying buffer when the stream is at a
+	 * byte boundary and falling back to readBits(8) when it is not.
+	 * @return number of bytes read, or -1 if the stream has no whole
+	 * byte left
+	 */
+	public int readBytes(byte[] bytes, int offset, int length) {
+		int count = 0;
+		if (available % BYTE_SIZE != 0) {
+			int value;
+			while (count < length && (value = readBits(BYTE_SIZE)) != -1) {
+				bytes[offset + count++] = (byte) value;
 			}
 		}
+		else {
+			//bytes already moved into the bit buffer come first
+			while (count < length && available > 0) {
+				bytes[offset + count++] = (byte) readBits(BYTE_SIZE);
+			}
+			while (count < length) {
+				if (!buffer.hasRemaining() && !fillBuffer()) {
+					break;
+				}
+				int chunk = Math.min(length - count, buffer.remaining());
+				buffer.get(bytes, offset + count, chunk);
+				count += chunk;
+			}
+		}
+		return count == 0 && length > 0 ? -1 : count;
+	}
+	
+	/**
+	 * Returns the next numBits bits without consuming them.  Past
+	 * the end of the stream the missing bits read as zeros, so use
+	 * skipBits to find out whether the bits peeked were really there.
+	 * @param numBits is number of bits to look at, on [1, 32]
+	 * @return the bits, right-aligned
+	 */
+	public int peekBits(int numBits) {
+		if (numBits > INT_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 32]");
+		}
 		
-		available = BYTE_SIZE * Math.min(BIT_BUFFER_SIZE, limit - buffer.position());
-		bitBuffer = buffer.getLong();
-		bitBuffer >>>= (int) Math.pow(2, BIT_BUFFER_SIZE) - available;
-		return true;
+		if (numBits > available) {
+			refill();
+			if (numBits > available) {
+				return (int) (bitBuffer << (numBits - available));
+			}
+		}
+		return (int) (bitBuffer >>> (available - numBits));
+	}
+	
+	/**
+	 * Consumes numBits bits, normally after peekBits.
+	 * @param numBits is number of bits to consume, on [0, 32]
+	 * @return numBits, or -1 if fewer bits were left in which case
+	 * nothing is consumed
+	 */
+	public int skipBits(int numBits) {
+		if (numBits > INT_SIZE || numBits < 0) {
+			throw new RuntimeException("Illegal argument: numBits must be on [0, 32]");
+		}
+		
+		if (numBits > available) {
+			refill();
+			if (numBits > available) {
+				return -1;
+			}
+		}
+		
+		available -= numBits;
+		bitBuffer &= bitMask[available];
+		return numBits;
+	}
+	
+	/**
+	 * Top up the bit buffer to at least MIN_BUFFERED_BITS bits, or to
+	 * whatever is left of the stream.  While at least 8 bytes are
+	 * buffered, one big-endian long load supplies as many whole bytes
+	 * as fit, with no per-byte loop.
+	 */
+	private void refill() {
+		if (available >= MIN_BUFFERED_BITS) {
+			return;
+		}
+		
+		if (buffer.remaining() >= BIT_BUFFER_SIZE) {
+			int bytes = (LONG_SIZE - available) >>> 3;
+			int shift = bytes << 3;
+			long word = buffer.getLong(buffer.position());
+			buffer.position(buffer.position() + bytes);
+			//shift is 64 only when the bit buffer is empty, and Java shifts by 64 mod 64
+			bitBuffer = shift == LONG_SIZE ? word : (bitBuffer << shift) | (word >>> (LONG_SIZE - shift));
+			available += shift;
+			return;
+		}
+		
+		while (available < MIN_BUFFERED_BITS) {
+			if (!buffer.hasRemaining() && !fillBuffer()) {
+				return;
+			}
+			bitBuffer = (bitBuffer << BYTE_SIZE) | (buffer.get() & 0xff);
+			available += BYTE_SIZE;
+			if (buffer.remaining() >= BIT_BUFFER_SIZE) {
+				refill();
+				return;
+			}
+		}
 	}
 	
 	private boolean fillBuffer() {
 		try {
 			buffer.clear();
-			limit = input.read(buffer);
+			int read = input.read(buffer);
+			while (read == 0) {
+				read = input.read(buffer);
+			}
 			buffer.flip();
-			if (limit == -1) {
+			if (read == -1) {
 				return false;
 			}
-			bitsRead += 8*limit;
-			buffer.limit(limit + (BIT_BUFFER_SIZE - limit % BIT_BUFFER_SIZE) % BIT_BUFFER_SIZE);
+			bitsRead += 8*read;
 			return true;
 		}
 		catch (IOException io) {
@@ -1,7 +1,8 @@
 /**
  *	Basic bit OutputStream utility based on the java.nio
  *	package.  Uses multiple buffers to move optimized chunks
- *	at a time.  Allows for writing up to 32 bits at a time.
+ *	at a time.  Allows for writing up to 32 bits at a time, or
+ *	up to 64 with writeLongBits.
  *
  *	@contributor Owen Astrachan
  *	@author Brian Lavallee
@@ -23,11 +24,12 @@ public class BitOutputStream extends OutputStream {
 	
 	public static final int BYTE_SIZE = 8;
 	private static final int INT_SIZE = 32;
+	private static final int LONG_SIZE = 64;
 	private static final int BUFFER_SIZE = 8192;
 	
 	private static final long[] bitMask = { 0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff, 0x1ff, 0x3ff, 0x7ff,
 			0xfff, 0x1fff, 0x3fff, 0x7fff, 0xffff, 0x1ffff, 0x3ffff, 0x7ffff, 0xfffff, 0x1fffff, 0x3fffff, 0x7fffff,
-			0xffffff, 0x1ffffff, 0x3ffffff, 0x7ffffff, 0xfffffff, 0x1fffffff, 0x3fffffff, 0x7fffffff, 0xffffffff,
+			0xffffff, 0x1ffffff, 0x3ffffff, 0x7ffffff, 0xfffffff, 0x1fffffff, 0x3fffffff, 0x7fffffff, 0xffffffffl,
 			0x1ffffffffl, 0x3ffffffffl, 0x7ffffffffl, 0xfffffffffl, 0x1fffffffffl, 0x3fffffffffl, 0x7fffffffffl,
 			0xffffffffffl, 0x1ffffffffffl, 0x3ffffffffffl, 0x7ffffffffffl, 0xfffffffffffl, 0x1fffffffffffl,
 			0x3fffffffffffl, 0x7fffffffffffl, 0xffffffffffffl, 0x1ffffffffffffl, 0x3ffffffffffffl, 0x7ffffffffffffl,
@@ -151,6 +153,64 @@ public class BitOutputStream extends OutputStream {
 		available -= numBits;
 	}
 	
+	/**
+	 * Writes the right-most/least significant numBits of
+	 * value to this stream, for codes too long for writeBits
+	 * @param numBits is number of bits written, on [1, 64]
+	 * @param value is source of bits written
+	 */
+	public void writeLongBits(int numBits, long value) {
+		if (numBits > LONG_SIZE || numBits < 1) {
+			throw new RuntimeException("Illegal argument: numBits must be on [1, 64]");
+		}
+		
+		bitsWritten += numBits;
+		value &= bitMask[numBits];
+		if (numBits > available) {
+			//a shift by 64 is a shift by 0 in Java, so only split when some room is left
+			if (available > 0) {
+				bitBuffer |= value >>> (numBits - available);
+			}
+			value &= bitMask[numBits - available];
+			numBits -= available;
+			emptyBitBuffer();
+		}
+		
+		bitBuffer |= value << (available - numBits);
+		available -= numBits;
+	}
+	
+	/**
+	 * Writes length whole bytes from bytes[offset..], handing them
+	 * straight to the output channel when the stream is at a byte
+	 * boundary and falling back to writeBits(8) when it is not
+	 * @param bytes is source of bytes written
+	 * @param offset is index of the first byte written
+	 * @param length is number of bytes written
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		if (available % BYTE_SIZE != 0) {
+			for (int k = offset; k < offset + length; k++) {
+				writeBits(BYTE_SIZE, bytes[k]);
+			}
+			return;
+		}
+		
+		//whole bytes still in the bit buffer go out first so order is kept
+		emptyBitBufferExact();
+		emptyBuffer();
+		try {
+			ByteBuffer data = ByteBuffer.wrap(bytes, offset, length);
+			while (data.hasRemaining()) {
+				output.write(data);
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		bitsWritten += BYTE_SIZE * length;
+	}
+	
 	private void emptyBitBuffer() {
 		if (!buffer.hasRemaining()) {
 			emptyBuffer();
@@ -0,0 +1,719 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Block container: input is cut into blocks that are each compressed
+ * with their own canonical code, so a block can be coded, decoded, or
+ * skipped without looking at any other block, and each code follows
+ * the statistics of its own part of the file.
+ * <P>
+ * Layout following the magic number HUFF_BLOCKS, all of it byte aligned:
+ * <pre>
+ *   32 bits             block size used by the compressor
+ *   per block:
+ *     32 bits           number of words in the block, 0 ends the stream
+ *     32 bits           size in bytes of the block's payload
+ *     payload           1 bit, 0 for a new table or 1 to reuse the table of
+ *                       the last block that has one,
+ *                       for a new table, code lengths as written by
+ *                       CanonicalCode.writeLengths,
+ *                       the block's codes, then PSEUDO_EOF, padded to a byte
+ *   index, per block:
+ *     64 bits           offset in bytes of the block from the magic number
+ *     32 bits           number of words in the block
+ *     32 bits           number of the block whose table it uses, its own
+ *                       number if it has a new table
+ *   32 bits             number of blocks
+ *   32 bits             HUFF_BLOCKS again, marking the end of the index
+ * </pre>
+ * A block reuses the previous table when the counts say its codes cost
+ * no more than a new table's codes plus its header.
+ * <P>
+ * Streams are decoded front to back and never look at the index. A
+ * file can be decoded from its index instead, block by block on
+ * several threads, each block written at its own position. The index
+ * names the block that holds each block's table, so a block that
+ * reuses a table reads it directly, and recently used tables are
+ * cached.
+ * <P>
+ * With more than one thread, blocks are counted and coded on a pool of
+ * workers while the calling thread reads input, chooses each block's
+ * table in order, and writes payloads in order.
+ * At most PENDING_PER_THREAD blocks per worker are read ahead, so
+ * memory stays bounded however far a slow block holds up the output.
+ */
+
+public class BlockCodec {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	public static final int MIN_BLOCK_SIZE = 1 << 12;
+	public static final int MAX_BLOCK_SIZE = 1 << 26;
+	public static final int PENDING_PER_THREAD = 2;
+
+	private static final int HEADER_BYTES = 8;
+	private static final int INDEX_ENTRY_BYTES = 16;
+	private static final int FOOTER_BYTES = 8;
+	private static final int MAX_TABLE_BYTES = 512;
+	private static final int CACHED_TABLES = 64;
+
+	private final HuffProcessor myProcessor;
+	private final int myBlockSize;
+	private final int myMaxCodeLength;
+	private final int myThreads;
+	private AtomicLongArray myBusy;
+	private long myElapsed;
+	private long myPosition;
+	private int myBlocks;
+	private long[] myOffsets;
+	private int[] mySizes;
+	private int[] myOwners;
+	private int myOwner;
+	private long[] myRawOffsets;
+	private int[] myPrevious;
+	private int myReused;
+	private HuffDecoder myLast;
+	private final Map<Integer, HuffDecoder> myTables;
+
+	/**
+	 * Construct codec using processor's decoder for the words of a block
+	 * @param processor decodes each block's codes
+	 * @param blockSize is the number of words per block when encoding
+	 * @param maxCodeLength limits every block's codes, 0 for no limit
+	 * @param threads is the number of threads coding blocks, at least 1
+	 */
+	public BlockCodec(HuffProcessor processor, int blockSize, int maxCodeLength, int threads) {
+		myProcessor = processor;
+		myBlockSize = blockSize;
+		myMaxCodeLength = maxCodeLength;
+		myThreads = threads;
+		myBlocks = 0;
+		myOffsets = new long[16];
+		mySizes = new int[16];
+		myOwners = new int[16];
+		myTables = Collections.synchronizedMap(new LinkedHashMap<Integer, HuffDecoder>(CACHED_TABLES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, HuffDecoder> eldest) {
+				return size() > CACHED_TABLES;
+			}
+		});
+	}
+
+	/**
+	 * Read the block size that follows the magic number
+	 * @param processor decodes each block's codes
+	 * @param in is positioned just after the magic number
+	 * @return codec for the blocks that follow
+	 * @throws HuffException if the block size is out of range
+	 */
+	public static BlockCodec readHeader(HuffProcessor processor, BitInputStream in) {
+		int blockSize = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+			throw new HuffException("bad input, block size " + blockSize);
+		}
+		return new BlockCodec(processor, blockSize, 0, 1);
+	}
+
+	/**
+	 * Write the block size
+	 * @param out is positioned just after the magic number
+	 */
+	public void writeHeader(BitOutputStream out) {
+		out.writeBits(HuffProcessor.BITS_PER_INT, myBlockSize);
+		myPosition = HEADER_BYTES;
+	}
+
+	/**
+	 * Encode every word of in as blocks, then the end marker. Input is
+	 * read once, a block at a time.
+	 * @param in is the stream of words to compress, at a byte boundary
+	 * @param out is positioned just after the header
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		if (myThreads > 1) {
+			encodeParallel(in, out);
+			return;
+		}
+		Block block = new Block(new byte[myBlockSize]);
+		while (true) {
+			block.mySize = readBlock(in, block.myWords);
+			if (block.mySize == 0) break;
+			chooseTable(block, countBlock(block.myWords, block.mySize));
+			writeBlock(block, encodeBlock(block), out);
+		}
+		out.writeBits(HuffProcessor.BITS_PER_INT, 0);
+		writeIndex(out);
+	}
+
+	/**
+	 * Hand blocks to the workers to count as they are read, choose tables
+	 * in order as counts arrive, hand blocks back to be coded, and write
+	 * the oldest block's payload whenever the read-ahead limit is reached
+	 */
+	private void encodeParallel(BitInputStream in, BitOutputStream out) {
+		myBusy = new AtomicLongArray(myThreads);
+		ThreadLocal<Integer> worker = new ThreadLocal<>();
+		int[] created = { 0 };
+		ExecutorService pool = Executors.newFixedThreadPool(myThreads, task -> {
+			int id = created[0]++;
+			Thread thread = new Thread(() -> {
+				worker.set(id);
+				task.run();
+			}, "huff-block-" + id);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long start = System.nanoTime();
+		ArrayDeque<Block> counting = new ArrayDeque<>();
+		ArrayDeque<Block> coding = new ArrayDeque<>();
+		try {
+			while (true) {
+				Block block = new Block(new byte[myBlockSize]);
+				block.mySize = readBlock(in, block.myWords);
+				if (block.mySize == 0) break;
+
+				block.myCounts = pool.submit(() -> {
+					long begin = System.nanoTime();
+					int[] counts = countBlock(block.myWords, block.mySize);
+					myBusy.addAndGet(worker.get(), System.nanoTime() - begin);
+					return counts;
+				});
+				counting.add(block);
+
+				//tables are chosen in block order, each from the table chosen before it
+				while (!counting.isEmpty() && (counting.peek().myCounts.isDone() || counting.size() > myThreads)) {
+					coding.add(startCoding(counting.remove(), pool, worker));
+				}
+				if (counting.size() + coding.size() > PENDING_PER_THREAD * myThreads && !coding.isEmpty()) {
+					Block oldest = coding.remove();
+					writeBlock(oldest, await(oldest.myPayload), out);
+				}
+			}
+			while (!counting.isEmpty()) {
+				coding.add(startCoding(counting.remove(), pool, worker));
+			}
+			while (!coding.isEmpty()) {
+				Block oldest = coding.remove();
+				writeBlock(oldest, await(oldest.myPayload), out);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		out.writeBits(HuffProcessor.BITS_PER_INT, 0);
+		writeIndex(out);
+		myElapsed = System.nanoTime() - start;
+	}
+
+	private Block startCoding(Block block, ExecutorService pool, ThreadLocal<Integer> worker) {
+		chooseTable(block, await(block.myCounts));
+		block.myPayload = pool.submit(() -> {
+			long begin = System.nanoTime();
+			byte[] payload = encodeBlock(block);
+			myBusy.addAndGet(worker.get(), System.nanoTime() - begin);
+			return payload;
+		});
+		return block;
+	}
+
+	static <T> T await(Future<T> result) {
+		try {
+			return result.get();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new HuffException("interrupted while coding blocks");
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new RuntimeException(ee.getCause());
+		}
+	}
+
+	/**
+	 * Share of the last parallel encode that each worker spent coding
+	 * blocks, the rest being time waiting for input or output
+	 * @return fraction busy on [0, 1] for each worker, empty if the
+	 * last encode ran on the calling thread alone
+	 */
+	public double[] utilization() {
+		if (myBusy == null) {
+			return new double[0];
+		}
+		double[] busy = new double[myBusy.length()];
+		for (int k = 0; k < busy.length; k++) {
+			busy[k] = myElapsed == 0 ? 0 : (double) myBusy.get(k) / myElapsed;
+		}
+		return busy;
+	}
+
+	/**
+	 * @return number of blocks of the last encode that reused the
+	 * previous block's table
+	 */
+	public int reusedTables() {
+		return myReused;
+	}
+
+	/**
+	 * Fill block from in
+	 * @return number of words read, less than a full block only at the end
+	 */
+	public static int readBlock(BitInputStream in, byte[] block) {
+		return readBlock(in, block, 0, block.length);
+	}
+
+	/**
+	 * Fill block[offset..offset+length) from in
+	 * @return number of words read, less than length only at the end
+	 */
+	public static int readBlock(BitInputStream in, byte[] block, int offset, int length) {
+		int n = 0;
+		while (n < length) {
+			int read = in.readBytes(block, offset + n, length - n);
+			if (read == -1) break;
+			n += read;
+		}
+		return n;
+	}
+
+	/**
+	 * Write one block's header and payload, noting where it starts and
+	 * which block holds its table
+	 */
+	private void writeBlock(Block block, byte[] payload, BitOutputStream out) {
+		int n = block.mySize;
+		if (myBlocks == myOffsets.length) {
+			myOffsets = Arrays.copyOf(myOffsets, 2 * myBlocks);
+			mySizes = Arrays.copyOf(mySizes, 2 * myBlocks);
+			myOwners = Arrays.copyOf(myOwners, 2 * myBlocks);
+		}
+		if (!block.myReuse) {
+			myOwner = myBlocks;
+		}
+		myOffsets[myBlocks] = myPosition;
+		mySizes[myBlocks] = n;
+		myOwners[myBlocks] = myOwner;
+		myBlocks++;
+		myPosition += HEADER_BYTES + payload.length;
+
+		out.writeBits(HuffProcessor.BITS_PER_INT, n);
+		out.writeBits(HuffProcessor.BITS_PER_INT, payload.length);
+		out.writeBytes(payload, 0, payload.length);
+	}
+
+	private void writeIndex(BitOutputStream out) {
+		for (int k = 0; k < myBlocks; k++) {
+			out.writeLongBits(64, myOffsets[k]);
+			out.writeBits(HuffProcessor.BITS_PER_INT, mySizes[k]);
+			out.writeBits(HuffProcessor.BITS_PER_INT, myOwners[k]);
+		}
+		out.writeBits(HuffProcessor.BITS_PER_INT, myBlocks);
+		out.writeBits(HuffProcessor.BITS_PER_INT, HuffProcessor.HUFF_BLOCKS);
+	}
+
+	/**
+	 * Count the words of block[0..n), with PSEUDO_EOF counted once
+	 */
+	private static int[] countBlock(byte[] block, int n) {
+		int[] counts = new int[HuffProcessor.ALPH_SIZE + 1];
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		ByteCounter counter = new ByteCounter();
+		counter.add(block, 0, n);
+		counter.addTo(counts);
+		return counts;
+	}
+
+	/**
+	 * Choose between a new table for the counts and the previous block's
+	 * table, whichever codes the block in fewer bits once the new
+	 * table's header is charged to it
+	 */
+	private void chooseTable(Block block, int[] counts) {
+		int[] lengths = FlatHuffTree.fromCounts(counts).lengths();
+		if (myMaxCodeLength > 0) {
+			int depth = 0;
+			for (int len : lengths) {
+				depth = Math.max(depth, len);
+			}
+			if (depth > myMaxCodeLength) {
+				lengths = LengthLimitedCode.lengths(counts, myMaxCodeLength);
+			}
+		}
+
+		block.myReuse = false;
+		if (myPrevious != null && covers(myPrevious, counts)) {
+			long reused = LengthLimitedCode.encodedBits(counts, myPrevious);
+			long fresh = LengthLimitedCode.encodedBits(counts, lengths) + headerBits(lengths);
+			block.myReuse = reused <= fresh;
+		}
+		if (block.myReuse) {
+			block.myLengths = myPrevious;
+			myReused++;
+		}
+		else {
+			block.myLengths = lengths;
+			myPrevious = lengths;
+		}
+	}
+
+	/**
+	 * @return true if every word counted has a code in lengths
+	 */
+	private static boolean covers(int[] lengths, int[] counts) {
+		for (int sym = 0; sym < counts.length; sym++) {
+			if (counts[sym] > 0 && lengths[sym] == 0) return false;
+		}
+		return true;
+	}
+
+	private static long headerBits(int[] lengths) {
+		BitOutputStream bits = new BitOutputStream(new ByteArrayOutputStream());
+		CanonicalCode.writeLengths(lengths, bits);
+		return bits.bitsWritten();
+	}
+
+	/**
+	 * Compress a block with the table chosen for it
+	 * @return the payload: reuse flag, code lengths of a new table, then
+	 * codes ending with PSEUDO_EOF
+	 */
+	private byte[] encodeBlock(Block block) {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(block.mySize / 2 + 64);
+		BitOutputStream bits = new BitOutputStream(payload);
+		bits.writeBits(1, block.myReuse ? 1 : 0);
+		if (!block.myReuse) {
+			CanonicalCode.writeLengths(block.myLengths, bits);
+		}
+		BulkEncoder encoder = new BulkEncoder(CanonicalCode.codesFromLengths(block.myLengths), block.myLengths, bits);
+		encoder.encode(block.myWords, 0, block.mySize);
+		encoder.encodeSymbol(HuffProcessor.PSEUDO_EOF);
+		encoder.finish();
+		bits.close();
+		return payload.toByteArray();
+	}
+
+	/**
+	 * Decode blocks from in until the end marker, writing words to out
+	 * @param in is positioned just after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if a block is truncated or corrupt
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		while (true) {
+			int n = in.readBits(HuffProcessor.BITS_PER_INT);
+			if (n == -1) {
+				throw new HuffException("bad input, no end of blocks");
+			}
+			if (n == 0) break;
+
+			byte[] block = decodeBlock(readPayload(n, in), n);
+			out.writeBytes(block, 0, n);
+		}
+	}
+
+	/**
+	 * Read the payload size and payload of a block of n words
+	 * @throws HuffException if either is corrupt or truncated
+	 */
+	public byte[] readPayload(int n, BitInputStream in) {
+		int size = in.readBits(HuffProcessor.BITS_PER_INT);
+		//a payload holds at most a full header and every code at the longest length
+		if (n < 0 || n > myBlockSize || size < 0 || size > (long) (n + 1) * CanonicalCode.MAX_CODE_LENGTH / 8 + 1024) {
+			throw new HuffException("bad input, block sizes are corrupt");
+		}
+		byte[] payload = new byte[size];
+		int read = 0;
+		while (read < size) {
+			int count = in.readBytes(payload, read, size - read);
+			if (count == -1) {
+				throw new HuffException("bad input, block is truncated");
+			}
+			read += count;
+		}
+		return payload;
+	}
+
+	/**
+	 * Decode the next block's payload in a stream, keeping the decoder of
+	 * the last new table for blocks that reuse it
+	 * @param payload is the block as written by encodeBlock
+	 * @param n is the number of words the block holds
+	 * @return the n words
+	 * @throws HuffException if the payload does not decode to n words
+	 */
+	public byte[] decodeBlock(byte[] payload, int n) {
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(payload));
+		if (in.readBits(1) == 0) {
+			myLast = readTable(in);
+		}
+		else if (myLast == null) {
+			throw new HuffException("bad input, first block reuses a table");
+		}
+		return decodeWords(myLast, in, n);
+	}
+
+	private HuffDecoder readTable(BitInputStream in) {
+		return myProcessor.makeDecoder(FlatHuffTree.fromLengths(CanonicalCode.readLengths(in)));
+	}
+
+	private static byte[] decodeWords(HuffDecoder decoder, BitInputStream in, int n) {
+		ByteArrayOutputStream words = new ByteArrayOutputStream(n);
+		BitOutputStream out = new BitOutputStream(words);
+		decoder.decode(in, out);
+		out.close();
+		if (words.size() != n) {
+			throw new HuffException("bad input, block decodes to " + words.size() + " words instead of " + n);
+		}
+		return words.toByteArray();
+	}
+
+	/**
+	 * Read the header and block index of a HUFF_BLOCKS file
+	 * @param processor decodes each block's codes
+	 * @param in is the whole compressed file
+	 * @param threads is the number of threads decode may use, at least 1
+	 * @return codec that can decode any block of in
+	 * @throws HuffException if in is not a HUFF_BLOCKS file or its
+	 * index is corrupt
+	 */
+	public static BlockCodec readIndex(HuffProcessor processor, FileChannel in, int threads) {
+		try {
+			long length = in.size();
+			if (length < HEADER_BYTES + 4 + FOOTER_BYTES) {
+				throw new HuffException("bad input, too short for a block index");
+			}
+			ByteBuffer header = readFully(in, 0, HEADER_BYTES);
+			if (header.getInt() != HuffProcessor.HUFF_BLOCKS) {
+				throw new HuffException("not a HUFF_BLOCKS file");
+			}
+			int blockSize = header.getInt();
+			if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+				throw new HuffException("bad input, block size " + blockSize);
+			}
+
+			ByteBuffer footer = readFully(in, length - FOOTER_BYTES, FOOTER_BYTES);
+			int blocks = footer.getInt();
+			long start = length - FOOTER_BYTES - (long) blocks * INDEX_ENTRY_BYTES;
+			if (footer.getInt() != HuffProcessor.HUFF_BLOCKS || blocks < 0 || start < HEADER_BYTES + 4) {
+				throw new HuffException("bad input, block index is corrupt");
+			}
+
+			BlockCodec codec = new BlockCodec(processor, blockSize, 0, threads);
+			codec.myBlocks = blocks;
+			codec.myOffsets = new long[blocks];
+			codec.mySizes = new int[blocks];
+			codec.myOwners = new int[blocks];
+			codec.myRawOffsets = new long[blocks + 1];
+			ByteBuffer index = readFully(in, start, blocks * INDEX_ENTRY_BYTES);
+			long previous = HEADER_BYTES - 1;
+			for (int k = 0; k < blocks; k++) {
+				long offset = index.getLong();
+				int n = index.getInt();
+				int owner = index.getInt();
+				//blocks are in order, all but the last are full, and a table comes from a block that has one
+				if (offset <= previous || offset + HEADER_BYTES > start || n < 1 || n > blockSize
+						|| (n < blockSize && k < blocks - 1)
+						|| owner < 0 || owner > k || (owner < k && codec.myOwners[owner] != owner)) {
+					throw new HuffException("bad input, block index is corrupt");
+				}
+				codec.myOffsets[k] = offset;
+				codec.mySizes[k] = n;
+				codec.myOwners[k] = owner;
+				codec.myRawOffsets[k + 1] = codec.myRawOffsets[k] + n;
+				previous = offset;
+			}
+			return codec;
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	/**
+	 * @return number of words the compressed file decodes to, once the
+	 * index has been read
+	 */
+	public long rawLength() {
+		return myRawOffsets[myBlocks];
+	}
+
+	/**
+	 * Decode every block listed in the index, writing each at its own
+	 * position in out. Blocks are decoded on as many threads as the codec
+	 * was given.
+	 * @param in is the whole compressed file
+	 * @param out is written from position 0, and is rawLength() long after
+	 * @throws HuffException if a block is corrupt
+	 */
+	public void decode(FileChannel in, FileChannel out) {
+		if (myThreads == 1) {
+			for (int k = 0; k < myBlocks; k++) {
+				writeFully(out, myRawOffsets[k], decodeBlockAt(in, k));
+			}
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(myThreads, task -> {
+			Thread thread = new Thread(task, "huff-block");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Object>> done = new ArrayList<>();
+			for (int k = 0; k < myBlocks; k++) {
+				int block = k;
+				done.add(pool.submit(() -> {
+					writeFully(out, myRawOffsets[block], decodeBlockAt(in, block));
+					return null;
+				}));
+			}
+			for (Future<Object> result : done) {
+				await(result);
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Decode words [offset, offset + length) of the original, reading only
+	 * the blocks that cover them
+	 * @param in is the whole compressed file
+	 * @param offset is the index of the first word wanted
+	 * @param length is the number of words wanted
+	 * @return the words
+	 * @throws HuffException if the range is not within rawLength() or a
+	 * covering block is corrupt
+	 */
+	public byte[] decodeRange(FileChannel in, long offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > rawLength()) {
+			throw new HuffException("range " + offset + "+" + length + " is outside 0+" + rawLength());
+		}
+		byte[] words = new byte[length];
+		int done = 0;
+		int k = Arrays.binarySearch(myRawOffsets, 0, myBlocks, offset);
+		if (k < 0) {
+			k = -k - 2;
+		}
+		for (; done < length; k++) {
+			byte[] block = decodeBlockAt(in, k);
+			int from = (int) (offset + done - myRawOffsets[k]);
+			int count = Math.min(length - done, block.length - from);
+			System.arraycopy(block, from, words, done, count);
+			done += count;
+		}
+		return words;
+	}
+
+	/**
+	 * Read and decode block k of the index with positional reads only, so
+	 * several threads can share in
+	 */
+	private byte[] decodeBlockAt(FileChannel in, int k) {
+		ByteBuffer header = readFully(in, myOffsets[k], HEADER_BYTES);
+		int n = header.getInt();
+		int size = header.getInt();
+		if (n != mySizes[k] || size < 0 || size > (long) (n + 1) * CanonicalCode.MAX_CODE_LENGTH / 8 + 1024) {
+			throw new HuffException("bad input, block " + k + " does not match the index");
+		}
+		BitInputStream payload = new BitInputStream(new ByteArrayInputStream(readFully(in, myOffsets[k] + HEADER_BYTES, size).array()));
+		int reuse = payload.readBits(1);
+		if (reuse != (myOwners[k] == k ? 0 : 1)) {
+			throw new HuffException("bad input, block " + k + " does not match the index");
+		}
+		HuffDecoder decoder;
+		if (reuse == 0) {
+			decoder = readTable(payload);
+			myTables.put(k, decoder);
+		}
+		else {
+			decoder = tableOf(in, myOwners[k]);
+		}
+		return decodeWords(decoder, payload, n);
+	}
+
+	/**
+	 * Find the decoder of block owner's new table, from the cache or by
+	 * reading only the start of its payload
+	 */
+	private HuffDecoder tableOf(FileChannel in, int owner) {
+		HuffDecoder cached = myTables.get(owner);
+		if (cached != null) {
+			return cached;
+		}
+		int size = readFully(in, myOffsets[owner] + HEADER_BYTES / 2, HEADER_BYTES / 2).getInt();
+		byte[] start = readFully(in, myOffsets[owner] + HEADER_BYTES, Math.max(0, Math.min(size, MAX_TABLE_BYTES))).array();
+		BitInputStream payload = new BitInputStream(new ByteArrayInputStream(start));
+		if (payload.readBits(1) != 0) {
+			throw new HuffException("bad input, block " + owner + " has no table of its own");
+		}
+		HuffDecoder decoder = readTable(payload);
+		myTables.put(owner, decoder);
+		return decoder;
+	}
+
+	private static ByteBuffer readFully(FileChannel in, long position, int length) {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		try {
+			while (bytes.hasRemaining()) {
+				if (in.read(bytes, position + bytes.position()) == -1) {
+					throw new HuffException("bad input, file is truncated");
+				}
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	private static void writeFully(FileChannel out, long position, byte[] bytes) {
+		ByteBuffer data = ByteBuffer.wrap(bytes);
+		try {
+			while (data.hasRemaining()) {
+				out.write(data, position + data.position());
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+
+	/**
+	 * A block on its way through the encoder
+	 */
+	private static class Block {
+		final byte[] myWords;
+		int mySize;
+		Future<int[]> myCounts;
+		int[] myLengths;
+		boolean myReuse;
+		Future<byte[]> myPayload;
+
+		Block(byte[] words) {
+			myWords = words;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Encodes blocks of bytes with a code table, gathering codes in a local
+ * 64-bit register and handing the output stream one full long at a
+ * time, instead of one readBits and one writeBits call per word.
+ * Output is bit-for-bit the same as writing each code separately.
+ */
+
+public class BulkEncoder {
+
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	private static final int LONG_SIZE = 64;
+
+	private final long[] myCodes;
+	private final int[] myLengths;
+	private final BitOutputStream myOut;
+	private long myRegister;
+	private int myFree;
+
+	/**
+	 * Construct encoder writing to out
+	 * @param codes is the right-aligned code of each symbol
+	 * @param lengths is the code length of each symbol, at most 64
+	 * @param out is where encoded bits are written
+	 */
+	public BulkEncoder(long[] codes, int[] lengths, BitOutputStream out) {
+		myCodes = codes;
+		myLengths = lengths;
+		myOut = out;
+		myRegister = 0;
+		myFree = LONG_SIZE;
+	}
+
+	/**
+	 * Encode every byte left in in, chunk by chunk
+	 * @param in is the stream of words to compress, at a byte boundary
+	 */
+	public void encode(BitInputStream in) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int read;
+		while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			encode(chunk, 0, read);
+		}
+	}
+
+	/**
+	 * Encode bytes[offset..offset+length)
+	 */
+	public void encode(byte[] bytes, int offset, int length) {
+		long[] codes = myCodes;
+		int[] lengths = myLengths;
+		long register = myRegister;
+		int free = myFree;
+		for (int k = offset; k < offset + length; k++) {
+			int sym = bytes[k] & 0xff;
+			int len = lengths[sym];
+			long code = codes[sym];
+			if (len < free) {
+				free -= len;
+				register |= code << free;
+				continue;
+			}
+
+			//the code straddles the register: top part finishes this long, the rest starts the next
+			int rest = len - free;
+			register |= code >>> rest;
+			myOut.writeLongBits(LONG_SIZE, register);
+			free = LONG_SIZE - rest;
+			register = rest == 0 ? 0 : code << free;
+		}
+		myRegister = register;
+		myFree = free;
+	}
+
+	/**
+	 * Encode one symbol, typically PSEUDO_EOF
+	 */
+	public void encodeSymbol(int sym) {
+		encodeBits(myLengths[sym], myCodes[sym]);
+	}
+
+	/**
+	 * Write bits as they are, such as the extra bits that follow a code
+	 * @param length is the number of bits, at most 64
+	 * @param bits holds them right-aligned, with nothing above them
+	 */
+	public void encodeBits(int length, long bits) {
+		if (length < myFree) {
+			myFree -= length;
+			myRegister |= bits << myFree;
+			return;
+		}
+		int rest = length - myFree;
+		myRegister |= bits >>> rest;
+		myOut.writeLongBits(LONG_SIZE, myRegister);
+		myFree = LONG_SIZE - rest;
+		myRegister = rest == 0 ? 0 : bits << myFree;
+	}
+
+	/**
+	 * Write the bits still held in the register. The output stream is
+	 * not flushed or closed.
+	 */
+	public void finish() {
+		if (myFree < LONG_SIZE) {
+			myOut.writeLongBits(LONG_SIZE - myFree, myRegister >>> myFree);
+		}
+		myRegister = 0;
+		myFree = LONG_SIZE;
+	}
+}
@@ -0,0 +1,429 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Block-sorting compression in the style of bzip2. Each block of input
+ * goes through the Burrows-Wheeler transform, which groups bytes by the
+ * context that follows them, then move-to-front, which turns those
+ * groups into runs of small numbers, then run-length coding of the
+ * zeros, and finally Huffman coding with the block's own canonical code.
+ * <P>
+ * The transform sorts suffixes with SuffixArray, so a block of n bytes
+ * needs a few int arrays of n entries while it is coded. Blocks are at
+ * most MAX_BLOCK_SIZE words so that a row number, which runs up to the
+ * block size, and a byte share an int when the transform is inverted. Blocks are
+ * independent, and with more than one thread they are transformed and
+ * inverted on a pool of workers, at most PENDING_PER_THREAD blocks per
+ * thread in flight, with output written in order.
+ * <P>
+ * After move-to-front, a run of r zeros is written in bijective base 2
+ * with digits RUNA (1) and RUNB (2), least significant first, and a
+ * value v of 1 to 255 is written as symbol v + 1, so the alphabet is
+ * 0..PSEUDO_EOF. The number of symbols is stored instead of an end code.
+ * <P>
+ * Layout following the magic number HUFF_BWT:
+ * <pre>
+ *   32 bits             largest number of words in a block
+ *   per block:
+ *     32 bits           number of words n in the block, 0 ends the stream
+ *     32 bits           size in bytes of the payload
+ *     payload           32-bit row of the original text among the
+ *                       sorted rotations, 32-bit number of symbols,
+ *                       code lengths as written by CanonicalCode.writeLengths,
+ *                       then the symbols' codes, padded to a byte
+ * </pre>
+ */
+
+public class BwtCodec {
+
+	public static final int MAX_BLOCK_SIZE = (1 << 24) - 1;
+	public static final int PENDING_PER_THREAD = 2;
+
+	private static final int RUNA = 0;
+	private static final int RUNB = 1;
+	private static final int SYMBOLS = HuffProcessor.ALPH_SIZE + 1;
+
+	private final int myBlockSize;
+	private final int myMaxCodeLength;
+	private final int myThreads;
+
+	/**
+	 * Construct codec for blocks of at most blockSize words
+	 * @param blockSize is the largest number of words in a block
+	 * @param maxCodeLength is the longest code allowed, or 0 for no limit
+	 * @param threads is the number of threads to code blocks with, at least 1
+	 */
+	public BwtCodec(int blockSize, int maxCodeLength, int threads) {
+		if (blockSize < BlockCodec.MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+			throw new HuffException("block size must be on [" + BlockCodec.MIN_BLOCK_SIZE + ", " + MAX_BLOCK_SIZE + "]");
+		}
+		if (threads < 1) {
+			throw new HuffException("need at least one thread to code blocks with");
+		}
+		myBlockSize = blockSize;
+		myMaxCodeLength = maxCodeLength;
+		myThreads = threads;
+	}
+
+	/**
+	 * Read the header that follows the magic number
+	 * @param in is positioned just after the magic number
+	 * @param threads is the number of threads to decode blocks with
+	 * @return codec for the blocks that follow
+	 */
+	public static BwtCodec readHeader(BitInputStream in, int threads) {
+		int blockSize = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (blockSize == -1) {
+			throw new HuffException("unable to read block size");
+		}
+		return new BwtCodec(blockSize, 0, threads);
+	}
+
+	public void writeHeader(BitOutputStream out) {
+		out.writeBits(HuffProcessor.BITS_PER_INT, myBlockSize);
+	}
+
+	/**
+	 * Encode every word of in as blocks, then the end marker
+	 * @param in is the stream of words to compress, at a byte boundary
+	 * @param out is positioned just after the header
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		run(myThreads, new Stage() {
+			public Callable<byte[]> next() {
+				byte[] block = new byte[myBlockSize];
+				int n = BlockCodec.readBlock(in, block);
+				if (n == 0) return null;
+				return () -> {
+					byte[] payload = encodeBlock(block, n);
+					ByteArrayOutputStream framed = new ByteArrayOutputStream(payload.length + 8);
+					BitOutputStream bits = new BitOutputStream(framed);
+					bits.writeBits(HuffProcessor.BITS_PER_INT, n);
+					bits.writeBits(HuffProcessor.BITS_PER_INT, payload.length);
+					bits.writeBytes(payload, 0, payload.length);
+					bits.close();
+					return framed.toByteArray();
+				};
+			}
+
+			public void write(byte[] framed) {
+				out.writeBytes(framed, 0, framed.length);
+			}
+		});
+		out.writeBits(HuffProcessor.BITS_PER_INT, 0);
+	}
+
+	/**
+	 * Decode blocks from in until the end marker
+	 * @param in is positioned just after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if a block is truncated or corrupt
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		run(myThreads, new Stage() {
+			public Callable<byte[]> next() {
+				int n = in.readBits(HuffProcessor.BITS_PER_INT);
+				if (n == -1) {
+					throw new HuffException("bad input, no end of blocks");
+				}
+				if (n == 0) return null;
+				byte[] payload = readPayload(n, in);
+				return () -> decodeBlock(payload, n);
+			}
+
+			public void write(byte[] words) {
+				out.writeBytes(words, 0, words.length);
+			}
+		});
+	}
+
+	/**
+	 * Work split between the calling thread, which reads blocks and
+	 * writes results in order, and the tasks it hands out
+	 */
+	private interface Stage {
+		/**
+		 * @return task for the next block, or null after the last
+		 */
+		Callable<byte[]> next();
+
+		void write(byte[] result);
+	}
+
+	/**
+	 * Run the stage's tasks in order on the calling thread, or on a pool
+	 * with a bounded number of results waiting to be written
+	 */
+	private static void run(int threads, Stage stage) {
+		if (threads == 1) {
+			Callable<byte[]> task;
+			while ((task = stage.next()) != null) {
+				stage.write(call(task));
+			}
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "huff-bwt");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		try {
+			Callable<byte[]> task;
+			while ((task = stage.next()) != null) {
+				if (pending.size() == PENDING_PER_THREAD * threads) {
+					stage.write(BlockCodec.await(pending.remove()));
+				}
+				pending.add(pool.submit(task));
+			}
+			while (!pending.isEmpty()) {
+				stage.write(BlockCodec.await(pending.remove()));
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static byte[] call(Callable<byte[]> task) {
+		try {
+			return task.call();
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Transform and compress block[0..n)
+	 * @return the payload described in the class comment
+	 */
+	public byte[] encodeBlock(byte[] block, int n) {
+		//the last column of the sorted rotations, leaving out the sentinel, whose row is kept
+		int[] sa = SuffixArray.build(block, n);
+		byte[] last = new byte[n];
+		int primary = 0;
+		for (int k = 0, j = 0; k <= n; k++) {
+			if (sa[k] == 0) {
+				primary = k;
+			}
+			else {
+				last[j++] = block[sa[k] - 1];
+			}
+		}
+
+		int[] symbols = new int[n];
+		int m = moveToFront(last, n, symbols);
+		int[] counts = new int[SYMBOLS];
+		for (int k = 0; k < m; k++) {
+			counts[symbols[k]]++;
+		}
+		int[] lengths = FlatHuffTree.fromCounts(counts).lengths();
+		if (myMaxCodeLength > 0) {
+			int depth = 0;
+			for (int len : lengths) {
+				depth = Math.max(depth, len);
+			}
+			if (depth > myMaxCodeLength) {
+				lengths = LengthLimitedCode.lengths(counts, myMaxCodeLength);
+			}
+		}
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(n / 3 + 64);
+		BitOutputStream bits = new BitOutputStream(payload);
+		bits.writeBits(HuffProcessor.BITS_PER_INT, primary);
+		bits.writeBits(HuffProcessor.BITS_PER_INT, m);
+		CanonicalCode.writeLengths(lengths, bits);
+		BulkEncoder encoder = new BulkEncoder(CanonicalCode.codesFromLengths(lengths), lengths, bits);
+		for (int k = 0; k < m; k++) {
+			encoder.encodeSymbol(symbols[k]);
+		}
+		encoder.finish();
+		bits.close();
+		return payload.toByteArray();
+	}
+
+	/**
+	 * Move-to-front code last[0..n) into symbols, with runs of zeros
+	 * written as RUNA and RUNB digits
+	 * @return number of symbols written, at most n
+	 */
+	private static int moveToFront(byte[] last, int n, int[] symbols) {
+		byte[] order = new byte[HuffProcessor.ALPH_SIZE];
+		for (int c = 0; c < order.length; c++) {
+			order[c] = (byte) c;
+		}
+		int m = 0;
+		int run = 0;
+		for (int k = 0; k < n; k++) {
+			byte c = last[k];
+			if (order[0] == c) {
+				run++;
+				continue;
+			}
+			if (run > 0) {
+				m = writeRun(run, symbols, m);
+				run = 0;
+			}
+
+			//shift the bytes ahead of c back one place and put c in front
+			byte previous = order[0];
+			int v = 1;
+			while (order[v] != c) {
+				byte next = order[v];
+				order[v] = previous;
+				previous = next;
+				v++;
+			}
+			order[v] = previous;
+			order[0] = c;
+			symbols[m++] = v + 1;
+		}
+		if (run > 0) {
+			m = writeRun(run, symbols, m);
+		}
+		return m;
+	}
+
+	private static int writeRun(int run, int[] symbols, int m) {
+		while (run > 0) {
+			run--;
+			symbols[m++] = (run & 1) == 0 ? RUNA : RUNB;
+			run >>= 1;
+		}
+		return m;
+	}
+
+	/**
+	 * Read a block's payload, checking its size against the block size
+	 * @param n is the number of words the block holds
+	 * @throws HuffException if the sizes are corrupt or the payload is truncated
+	 */
+	private byte[] readPayload(int n, BitInputStream in) {
+		int size = in.readBits(HuffProcessor.BITS_PER_INT);
+		//at most n symbols at the longest code length, and a header
+		if (n < 0 || n > myBlockSize || size < 0 || size > (long) n * CanonicalCode.MAX_CODE_LENGTH / 8 + 1024) {
+			throw new HuffException("bad input, block sizes are corrupt");
+		}
+		byte[] payload = new byte[size];
+		int read = 0;
+		while (read < size) {
+			int count = in.readBytes(payload, read, size - read);
+			if (count == -1) {
+				throw new HuffException("bad input, block is truncated");
+			}
+			read += count;
+		}
+		return payload;
+	}
+
+	/**
+	 * Decode one block's payload and invert the transform
+	 * @param payload is the block as written by encodeBlock
+	 * @param n is the number of words the block holds
+	 * @return the n words
+	 * @throws HuffException if the payload does not decode to n words
+	 */
+	public byte[] decodeBlock(byte[] payload, int n) {
+		BitInputStream in = new BitInputStream(new ByteArrayInputStream(payload));
+		int primary = in.readBits(HuffProcessor.BITS_PER_INT);
+		int m = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (primary < 0 || primary > n || m < 1 || m > n) {
+			throw new HuffException("bad input, block header is corrupt");
+		}
+		TableDecoder decoder = new TableDecoder(FlatHuffTree.fromLengths(CanonicalCode.readLengths(in)));
+
+		//undo run-length and move-to-front coding
+		byte[] order = new byte[HuffProcessor.ALPH_SIZE];
+		for (int c = 0; c < order.length; c++) {
+			order[c] = (byte) c;
+		}
+		byte[] last = new byte[n];
+		int filled = 0;
+		long run = 0;
+		int weight = 1;
+		for (int k = 0; k < m; k++) {
+			int sym = decoder.decodeSymbol(in);
+			if (sym <= RUNB) {
+				run += (long) (sym + 1) * weight;
+				weight <<= 1;
+				if (filled + run > n) {
+					throw new HuffException("bad input, block decodes to more than " + n + " words");
+				}
+				continue;
+			}
+			if (run > 0) {
+				Arrays.fill(last, filled, filled + (int) run, order[0]);
+				filled += run;
+				run = 0;
+				weight = 1;
+			}
+			if (filled == n) {
+				throw new HuffException("bad input, block decodes to more than " + n + " words");
+			}
+			int v = sym - 1;
+			byte c = order[v];
+			System.arraycopy(order, 0, order, 1, v);
+			order[0] = c;
+			last[filled++] = c;
+		}
+		if (run > 0) {
+			Arrays.fill(last, filled, filled + (int) run, order[0]);
+			filled += run;
+		}
+		if (filled != n) {
+			throw new HuffException("bad input, block decodes to " + filled + " words, not " + n);
+		}
+		return invert(last, n, primary);
+	}
+
+	/**
+	 * Rebuild the text from the last column of its sorted rotations,
+	 * walking from the row of the sentinel alone back to the start
+	 */
+	private static byte[] invert(byte[] last, int n, int primary) {
+		//first row of each byte's block of rows, after the one row that starts with the sentinel
+		int[] first = new int[HuffProcessor.ALPH_SIZE];
+		for (int k = 0; k < n; k++) {
+			first[last[k] & 0xff]++;
+		}
+		int sum = 1;
+		for (int c = 0; c < first.length; c++) {
+			int count = first[c];
+			first[c] = sum;
+			sum += count;
+		}
+
+		//row k of the n + 1 rows ends with last[k], or last[k - 1] past the sentinel's row;
+		//keep the row before it and that byte in one int so each step of the walk reads one entry
+		int[] rows = new int[n + 1];
+		for (int k = 0; k <= n; k++) {
+			if (k != primary) {
+				int c = last[k < primary ? k : k - 1] & 0xff;
+				rows[k] = first[c]++ << HuffProcessor.BITS_PER_WORD | c;
+			}
+		}
+
+		byte[] text = new byte[n];
+		int row = 0;
+		for (int j = n - 1; j >= 0; j--) {
+			if (row == primary) {
+				throw new HuffException("bad input, rotation row is corrupt");
+			}
+			int entry = rows[row];
+			text[j] = (byte) entry;
+			row = entry >>> HuffProcessor.BITS_PER_WORD;
+		}
+		return text;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Counts byte values for the first pass of compression. Bytes are read
+ * in chunks and consecutive bytes are counted in different tables, so
+ * a run of one value, common in images, does not make every increment
+ * wait on the store of the one before it. The tables are summed when
+ * the counts are taken.
+ * <P>
+ * Counts are kept as longs so that inputs of several GB, where one
+ * word can occur more than 2^31 times, are counted exactly; fit scales
+ * them down for building a tree.
+ */
+
+public class ByteCounter {
+
+	public static final int TABLES = 4;
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	private static final int BYTE_VALUES = 1 << HuffProcessor.BITS_PER_WORD;
+
+	private final long[] myTables;
+
+	/**
+	 * Construct counter with every count 0
+	 */
+	public ByteCounter() {
+		myTables = new long[TABLES * BYTE_VALUES];
+	}
+
+	/**
+	 * Count every byte left in in
+	 * @param in is the stream of words to count, at a byte boundary
+	 */
+	public void add(BitInputStream in) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int read;
+		while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			add(chunk, 0, read);
+		}
+	}
+
+	/**
+	 * Count bytes[offset..offset+length)
+	 */
+	public void add(byte[] bytes, int offset, int length) {
+		long[] tables = myTables;
+		int k = offset;
+		int end = offset + length;
+		for (; k + TABLES <= end; k += TABLES) {
+			tables[bytes[k] & 0xff]++;
+			tables[BYTE_VALUES + (bytes[k + 1] & 0xff)]++;
+			tables[2 * BYTE_VALUES + (bytes[k + 2] & 0xff)]++;
+			tables[3 * BYTE_VALUES + (bytes[k + 3] & 0xff)]++;
+		}
+		for (; k < end; k++) {
+			tables[bytes[k] & 0xff]++;
+		}
+	}
+
+	/**
+	 * Add the counts gathered so far to counts
+	 * @param counts is indexed by byte value and has at least 256 entries
+	 */
+	public void addTo(long[] counts) {
+		for (int value = 0; value < BYTE_VALUES; value++) {
+			long sum = 0;
+			for (int t = 0; t < TABLES; t++) {
+				sum += myTables[t * BYTE_VALUES + value];
+			}
+			counts[value] += sum;
+		}
+	}
+
+	/**
+	 * Add the counts gathered so far to counts, for input known to be
+	 * small such as one block
+	 * @param counts is indexed by byte value and has at least 256 entries
+	 * @throws HuffException if a count no longer fits an int
+	 */
+	public void addTo(int[] counts) {
+		long[] sums = new long[BYTE_VALUES];
+		addTo(sums);
+		for (int value = 0; value < BYTE_VALUES; value++) {
+			long sum = counts[value] + sums[value];
+			if (sum > Integer.MAX_VALUE) {
+				throw new HuffException("word " + value + " occurs more than " + Integer.MAX_VALUE + " times");
+			}
+			counts[value] = (int) sum;
+		}
+	}
+
+	/**
+	 * Scale counts down to ints for building a tree. Counts that all fit
+	 * are copied; otherwise every count is halved until the largest fits,
+	 * and a count that would drop to 0 stays 1 so its word keeps a code.
+	 * @param counts is the exact count of each symbol
+	 * @return counts that fit an int, 0 only where counts has 0
+	 */
+	public static int[] fit(long[] counts) {
+		long max = 0;
+		for (long count : counts) {
+			max = Math.max(max, count);
+		}
+		int shift = 0;
+		while ((max >>> shift) > Integer.MAX_VALUE) {
+			shift++;
+		}
+		int[] fitted = new int[counts.length];
+		for (int sym = 0; sym < counts.length; sym++) {
+			fitted[sym] = counts[sym] == 0 ? 0 : (int) Math.max(1, counts[sym] >>> shift);
+		}
+		return fitted;
+	}
+}
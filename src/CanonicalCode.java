@@ -0,0 +1,206 @@
+/**
+ * Canonical Huffman codes. Only the code length of each symbol is
+ * stored in the header; codes are rebuilt arithmetically by assigning
+ * consecutive values to symbols sorted by (length, symbol).
+ * <P>
+ * Header layout, following the magic number HUFF_CANON, where w is the
+ * number of bits needed to write L:
+ * <pre>
+ *   6 bits            maximum code length L
+ *   1 bit             0 for a presence map, 1 for a symbol list
+ *   presence map, per symbol 0..PSEUDO_EOF (or of a larger alphabet):
+ *     1 bit           0 if the symbol does not occur
+ *     1 bit + w bits  1 followed by the code length
+ *   symbol list:
+ *     9 bits          number of symbols n
+ *     n * (9 + w)     each symbol followed by its code length
+ * </pre>
+ * The writer picks whichever of the two is shorter, so small alphabets
+ * such as DNA don't pay for a 257-bit map. Alphabets other than the
+ * usual 257 symbols, up to 2^9, are written the same way; the reader
+ * must be told their size.
+ */
+
+public class CanonicalCode {
+
+	public static final int MAX_CODE_LENGTH = 63;
+	private static final int MAX_LENGTH_BITS = 6;
+	private static final int SYMBOL_BITS = HuffProcessor.BITS_PER_WORD + 1;
+
+	/**
+	 * Assign canonical codes: shorter codes first, ties broken by symbol.
+	 * @param lengths is the code length of each symbol, 0 if absent
+	 * @return array of codes indexed by symbol, right-aligned
+	 */
+	public static long[] codesFromLengths(int[] lengths) {
+		int maxLength = 0;
+		for (int len : lengths) {
+			maxLength = Math.max(maxLength, len);
+		}
+
+		int[] countPerLength = new int[maxLength + 1];
+		for (int len : lengths) {
+			if (len > 0) {
+				countPerLength[len]++;
+			}
+		}
+
+		//first code of each length is one past the last code of the previous length, shifted
+		long[] nextCode = new long[maxLength + 1];
+		long code = 0;
+		for (int len = 1; len <= maxLength; len++) {
+			code = (code + countPerLength[len - 1]) << 1;
+			nextCode[len] = code;
+		}
+
+		long[] codes = new long[lengths.length];
+		for (int sym = 0; sym < lengths.length; sym++) {
+			if (lengths[sym] > 0) {
+				codes[sym] = nextCode[lengths[sym]]++;
+			}
+		}
+		return codes;
+	}
+
+	/**
+	 * Write the code lengths as described in the class comment
+	 * @param lengths is the code length of each symbol, 0 if absent
+	 * @param out is where the header is written
+	 */
+	public static void writeLengths(int[] lengths, BitOutputStream out) {
+		int maxLength = 0;
+		for (int len : lengths) {
+			maxLength = Math.max(maxLength, len);
+		}
+		if (maxLength > MAX_CODE_LENGTH) {
+			throw new HuffException("code length " + maxLength + " exceeds " + MAX_CODE_LENGTH);
+		}
+
+		if (lengths.length > 1 << SYMBOL_BITS) {
+			throw new HuffException("alphabet of " + lengths.length + " symbols is too large");
+		}
+
+		int width = bitsFor(maxLength);
+		int symbols = 0;
+		for (int len : lengths) {
+			if (len > 0) symbols++;
+		}
+
+		out.writeBits(MAX_LENGTH_BITS, maxLength);
+		int mapBits = lengths.length + symbols * width;
+		int listBits = SYMBOL_BITS + symbols * (SYMBOL_BITS + width);
+		if (mapBits <= listBits) {
+			out.writeBits(1, 0);
+			for (int sym = 0; sym < lengths.length; sym++) {
+				if (lengths[sym] == 0) {
+					out.writeBits(1, 0);
+				}
+				else {
+					out.writeBits(1, 1);
+					out.writeBits(width, lengths[sym]);
+				}
+			}
+		}
+		else {
+			out.writeBits(1, 1);
+			out.writeBits(SYMBOL_BITS, symbols);
+			for (int sym = 0; sym < lengths.length; sym++) {
+				if (lengths[sym] > 0) {
+					out.writeBits(SYMBOL_BITS, sym);
+					out.writeBits(width, lengths[sym]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read code lengths written by writeLengths and check that they
+	 * describe a usable prefix code.
+	 * @param in is positioned just after the magic number
+	 * @return the code length of each symbol, 0 if absent
+	 * @throws HuffException if the header is truncated or the lengths
+	 * do not form a complete prefix code
+	 */
+	public static int[] readLengths(BitInputStream in) {
+		return readLengths(in, HuffProcessor.ALPH_SIZE + 1);
+	}
+
+	/**
+	 * Read code lengths for an alphabet of the given size, as written by
+	 * writeLengths for a lengths array of that size
+	 * @param in is positioned at the code lengths
+	 * @param alphabet is the number of symbols, at most 2^9
+	 * @return the code length of each symbol, 0 if absent
+	 * @throws HuffException if the header is truncated or the lengths
+	 * do not form a complete prefix code
+	 */
+	public static int[] readLengths(BitInputStream in, int alphabet) {
+		int maxLength = in.readBits(MAX_LENGTH_BITS);
+		if (maxLength < 1) {
+			throw new HuffException("unable to read code lengths");
+		}
+
+		int width = bitsFor(maxLength);
+		int[] lengths = new int[alphabet];
+		int[] countPerLength = new int[maxLength + 1];
+		int symbols = 0;
+		int list = in.readBits(1);
+		if (list == -1) {
+			throw new HuffException("unable to read code lengths");
+		}
+
+		int entries = list == 1 ? in.readBits(SYMBOL_BITS) : lengths.length;
+		if (entries < 0 || entries > lengths.length) {
+			throw new HuffException("unable to read code lengths");
+		}
+		for (int k = 0; k < entries; k++) {
+			int sym = k;
+			if (list == 1) {
+				sym = in.readBits(SYMBOL_BITS);
+				if (sym < 0 || sym >= alphabet || lengths[sym] != 0) {
+					throw new HuffException("bad symbol in code lengths");
+				}
+			}
+			else {
+				int present = in.readBits(1);
+				if (present == -1) {
+					throw new HuffException("unable to read code lengths");
+				}
+				if (present == 0) continue;
+			}
+
+			int len = in.readBits(width);
+			if (len < 1 || len > maxLength) {
+				throw new HuffException("bad code length " + len + " for symbol " + sym);
+			}
+			lengths[sym] = len;
+			countPerLength[len]++;
+			symbols++;
+		}
+
+		//a lone symbol is allowed a one-bit code, see FlatHuffTree.fromLengths
+		if (symbols == 1 && maxLength == 1) {
+			return lengths;
+		}
+
+		//Kraft check: unused codes at each length must never go negative, and
+		//can never exceed the symbols still to be placed if the code is complete
+		long left = 1;
+		int remaining = symbols;
+		for (int len = 1; len <= maxLength; len++) {
+			left = (left << 1) - countPerLength[len];
+			remaining -= countPerLength[len];
+			if (left < 0) {
+				throw new HuffException("code lengths are oversubscribed");
+			}
+			if (left > remaining) {
+				throw new HuffException("code lengths are incomplete");
+			}
+		}
+		return lengths;
+	}
+
+	private static int bitsFor(int value) {
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+}
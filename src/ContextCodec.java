@@ -0,0 +1,268 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Order-1 context modeling: each word is coded with a table chosen by
+ * the word before it, so a letter after 'q' costs far less than on its
+ * own. The first word is coded as if it followed word 0.
+ * <P>
+ * A context only gets a table of its own when that saves more than the
+ * table's header costs; every other context is merged into one shared
+ * table built from their combined counts. Every table also codes
+ * PSEUDO_EOF, so the stream can end in any context.
+ * <P>
+ * Layout following the magic number HUFF_CONTEXT:
+ * <pre>
+ *   shared table        code lengths as written by CanonicalCode.writeLengths
+ *   1 bit               0 for a map of contexts, 1 for a list
+ *   map: CONTEXTS bits  1 if the context has a table of its own
+ *   list: 9 bits        number of contexts with a table of their own,
+ *         8 bits each   those contexts in increasing order
+ *   own tables          code lengths of each such context, in order
+ *   codes               each word coded with its context's table,
+ *                       then PSEUDO_EOF
+ * </pre>
+ * Decoding looks each code up in its context's TableDecoder. Tables are
+ * TABLE_BITS wide, narrower than a lone TableDecoder's, so that the
+ * tables of every busy context stay in cache together.
+ */
+
+public class ContextCodec {
+
+	public static final int CONTEXTS = HuffProcessor.ALPH_SIZE;
+	public static final int TABLE_BITS = 8;
+
+	private static final int SYMBOLS = HuffProcessor.ALPH_SIZE + 1;
+	private static final int COUNT_BITS = HuffProcessor.BITS_PER_WORD + 1;
+
+	private final int[] myShared;
+	private final int[][] myOwn;
+
+	/**
+	 * Construct codec from its tables
+	 * @param shared is the code length of each symbol in the shared table
+	 * @param own is the code lengths of each context's table, null for
+	 * contexts that use the shared table
+	 */
+	public ContextCodec(int[] shared, int[][] own) {
+		if (own.length != CONTEXTS) {
+			throw new HuffException("need a table entry for each of " + CONTEXTS + " contexts");
+		}
+		myShared = shared;
+		myOwn = own;
+	}
+
+	/**
+	 * Choose the tables that code the counts in the fewest bits, headers
+	 * included, by comparing each context's own table with the table of
+	 * all contexts combined
+	 * @param counts is indexed by context, then by symbol
+	 * @param maxLength is the longest code allowed, or 0 for no limit
+	 * @return codec for the tables chosen
+	 */
+	public static ContextCodec fromCounts(int[][] counts, int maxLength) {
+		int[] combined = new int[SYMBOLS];
+		for (int[] context : counts) {
+			for (int sym = 0; sym < SYMBOLS; sym++) {
+				combined[sym] += context[sym];
+			}
+		}
+		int[] order0 = lengthsFor(combined, maxLength);
+
+		int[][] own = new int[CONTEXTS][];
+		int[] shared = new int[SYMBOLS];
+		for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+			boolean used = false;
+			for (int count : counts[ctx]) {
+				used |= count > 0;
+			}
+			if (!used) continue;
+
+			int[] lengths = lengthsFor(counts[ctx], maxLength);
+			long alone = headerBits(lengths) + LengthLimitedCode.encodedBits(counts[ctx], lengths);
+			if (alone < LengthLimitedCode.encodedBits(counts[ctx], order0)) {
+				own[ctx] = lengths;
+			}
+			else {
+				for (int sym = 0; sym < SYMBOLS; sym++) {
+					shared[sym] += counts[ctx][sym];
+				}
+			}
+		}
+		return new ContextCodec(lengthsFor(shared, maxLength), own);
+	}
+
+	/**
+	 * Code lengths for counts, with PSEUDO_EOF counted at least once and
+	 * codes no longer than maxLength unless it is 0
+	 */
+	private static int[] lengthsFor(int[] counts, int maxLength) {
+		int[] withEof = counts.clone();
+		withEof[HuffProcessor.PSEUDO_EOF] = Math.max(1, withEof[HuffProcessor.PSEUDO_EOF]);
+		int[] lengths = FlatHuffTree.fromCounts(withEof).lengths();
+		if (maxLength > 0) {
+			int depth = 0;
+			for (int len : lengths) {
+				depth = Math.max(depth, len);
+			}
+			if (depth > maxLength) {
+				lengths = LengthLimitedCode.lengths(withEof, maxLength);
+			}
+		}
+		return lengths;
+	}
+
+	private static long headerBits(int[] lengths) {
+		BitOutputStream bits = new BitOutputStream(new ByteArrayOutputStream());
+		CanonicalCode.writeLengths(lengths, bits);
+		return bits.bitsWritten() + 1;
+	}
+
+	/**
+	 * Read the tables that follow the magic number
+	 * @param in is positioned just after the magic number
+	 * @return codec for the tables read
+	 * @throws HuffException if the header is truncated or corrupt
+	 */
+	public static ContextCodec readHeader(BitInputStream in) {
+		int[] shared = CanonicalCode.readLengths(in);
+		boolean[] hasOwn = new boolean[CONTEXTS];
+		int list = in.readBits(1);
+		if (list == 0) {
+			for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+				int bit = in.readBits(1);
+				if (bit == -1) {
+					throw new HuffException("unable to read context tables");
+				}
+				hasOwn[ctx] = bit == 1;
+			}
+		}
+		else {
+			int tables = in.readBits(COUNT_BITS);
+			if (tables == -1 || tables > CONTEXTS) {
+				throw new HuffException("unable to read context tables");
+			}
+			for (int k = 0; k < tables; k++) {
+				int ctx = in.readBits(HuffProcessor.BITS_PER_WORD);
+				if (ctx == -1) {
+					throw new HuffException("unable to read context tables");
+				}
+				hasOwn[ctx] = true;
+			}
+		}
+		int[][] own = new int[CONTEXTS][];
+		for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+			if (hasOwn[ctx]) {
+				own[ctx] = CanonicalCode.readLengths(in);
+			}
+		}
+		return new ContextCodec(shared, own);
+	}
+
+	/**
+	 * Write the tables as described in the class comment
+	 */
+	public void writeHeader(BitOutputStream out) {
+		CanonicalCode.writeLengths(myShared, out);
+		int tables = ownTables();
+		if (CONTEXTS <= COUNT_BITS + tables * HuffProcessor.BITS_PER_WORD) {
+			out.writeBits(1, 0);
+			for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+				out.writeBits(1, myOwn[ctx] == null ? 0 : 1);
+			}
+		}
+		else {
+			out.writeBits(1, 1);
+			out.writeBits(COUNT_BITS, tables);
+			for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+				if (myOwn[ctx] != null) {
+					out.writeBits(HuffProcessor.BITS_PER_WORD, ctx);
+				}
+			}
+		}
+		for (int[] lengths : myOwn) {
+			if (lengths != null) {
+				CanonicalCode.writeLengths(lengths, out);
+			}
+		}
+	}
+
+	/**
+	 * @return number of contexts with a table of their own
+	 */
+	public int ownTables() {
+		int tables = 0;
+		for (int[] lengths : myOwn) {
+			if (lengths != null) tables++;
+		}
+		return tables;
+	}
+
+	/**
+	 * Encode every word of in, then PSEUDO_EOF. All tables are laid end
+	 * to end so one BulkEncoder codes symbol sym of context ctx as entry
+	 * ctx * SYMBOLS + sym.
+	 * @param in is the stream of words to compress, at a byte boundary
+	 * @param out is positioned just after the header
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		long[] codes = new long[CONTEXTS * SYMBOLS];
+		int[] lengths = new int[CONTEXTS * SYMBOLS];
+		long[] sharedCodes = CanonicalCode.codesFromLengths(myShared);
+		for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+			int[] table = myOwn[ctx] == null ? myShared : myOwn[ctx];
+			long[] tableCodes = myOwn[ctx] == null ? sharedCodes : CanonicalCode.codesFromLengths(table);
+			System.arraycopy(table, 0, lengths, ctx * SYMBOLS, SYMBOLS);
+			System.arraycopy(tableCodes, 0, codes, ctx * SYMBOLS, SYMBOLS);
+		}
+
+		BulkEncoder encoder = new BulkEncoder(codes, lengths, out);
+		byte[] chunk = new byte[BulkEncoder.CHUNK_SIZE];
+		int base = 0;
+		int read;
+		while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			for (int k = 0; k < read; k++) {
+				int sym = chunk[k] & 0xff;
+				encoder.encodeSymbol(base + sym);
+				base = sym * SYMBOLS;
+			}
+		}
+		encoder.encodeSymbol(base + HuffProcessor.PSEUDO_EOF);
+		encoder.finish();
+	}
+
+	/**
+	 * Decode words from in, writing each to out, until PSEUDO_EOF
+	 * @param in is positioned just after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		TableDecoder shared = decoderFor(myShared);
+		TableDecoder[] decoders = new TableDecoder[CONTEXTS];
+		for (int ctx = 0; ctx < CONTEXTS; ctx++) {
+			decoders[ctx] = myOwn[ctx] == null ? shared : decoderFor(myOwn[ctx]);
+		}
+
+		int ctx = 0;
+		while (true) {
+			int sym = decoders[ctx].decodeSymbol(in);
+			if (sym == HuffProcessor.PSEUDO_EOF) {
+				break;
+			}
+			out.writeBits(HuffProcessor.BITS_PER_WORD, sym);
+			ctx = sym;
+		}
+	}
+
+	/**
+	 * Table decoder no wider than TABLE_BITS or the longest code, so
+	 * contexts with few words keep small tables
+	 */
+	private static TableDecoder decoderFor(int[] lengths) {
+		int depth = 1;
+		for (int len : lengths) {
+			depth = Math.max(depth, len);
+		}
+		return new TableDecoder(FlatHuffTree.fromLengths(lengths), Math.min(depth, TABLE_BITS));
+	}
+}
@@ -0,0 +1,362 @@
+/**
+ * Huffman tree stored in a single int array instead of a graph of
+ * HuffNode objects. Internal node i keeps its children at positions
+ * 2i and 2i+1, so walking a code is one array read per bit.
+ * <P>
+ * A child reference is either the index of an internal node (>= 0) or
+ * the one's complement ~symbol of a leaf (< 0). The root is a reference
+ * too, so a tree that is a single leaf needs no internal nodes.
+ * <P>
+ * Symbols are 0..PSEUDO_EOF unless the tree is built from counts or
+ * lengths for a larger alphabet, in which case lengths and codes cover
+ * that alphabet.
+ * <P>
+ * HuffNode trees can still be converted in either direction with
+ * fromHuffNode and toHuffNode.
+ */
+
+public class FlatHuffTree {
+
+	private final int[] myChildren;
+	private final int mySymbols;
+	private int myInternal;
+	private int myRoot;
+
+	private FlatHuffTree(int maxInternal) {
+		this(maxInternal, HuffProcessor.ALPH_SIZE + 1);
+	}
+
+	private FlatHuffTree(int maxInternal, int symbols) {
+		myChildren = new int[2 * maxInternal];
+		mySymbols = symbols;
+		myInternal = 0;
+	}
+
+	/**
+	 * Build the Huffman tree for the counts. Merges happen in exactly the
+	 * order PriorityQueue<HuffNode> produced, so trees, and therefore
+	 * compressed output, are unchanged.
+	 * @param counts is the number of occurrences of each symbol
+	 * @return tree with a leaf for every symbol whose count is positive
+	 */
+	public static FlatHuffTree fromCounts(int[] counts) {
+		int symbols = 0;
+		for (int count : counts) {
+			if (count > 0) symbols++;
+		}
+		if (symbols == 0) {
+			throw new HuffException("no symbols to build a tree from");
+		}
+
+		FlatHuffTree tree = new FlatHuffTree(symbols - 1, Math.max(counts.length, HuffProcessor.ALPH_SIZE + 1));
+		int[] heap = new int[symbols];
+		long[] weights = new long[symbols];
+		int size = 0;
+		for (int sym = 0; sym < counts.length; sym++) {
+			if (counts[sym] > 0) {
+				size = siftUp(heap, weights, size, ~sym, counts[sym]);
+			}
+		}
+
+		while (size > 1) {
+			int left = heap[0];
+			long leftWeight = weights[0];
+			size = removeMin(heap, weights, size);
+			int right = heap[0];
+			long rightWeight = weights[0];
+			size = removeMin(heap, weights, size);
+			size = siftUp(heap, weights, size, tree.addInternal(left, right), leftWeight + rightWeight);
+		}
+		tree.myRoot = heap[0];
+		return tree;
+	}
+
+	/**
+	 * Add ref with weight to the binary heap of size entries, the same
+	 * sift-up PriorityQueue.add performs
+	 * @return new heap size
+	 */
+	private static int siftUp(int[] heap, long[] weights, int size, int ref, long weight) {
+		int k = size;
+		while (k > 0) {
+			int parent = (k - 1) >>> 1;
+			if (weight >= weights[parent]) break;
+			heap[k] = heap[parent];
+			weights[k] = weights[parent];
+			k = parent;
+		}
+		heap[k] = ref;
+		weights[k] = weight;
+		return size + 1;
+	}
+
+	/**
+	 * Remove the minimum of the heap, the same sift-down
+	 * PriorityQueue.remove performs
+	 * @return new heap size
+	 */
+	private static int removeMin(int[] heap, long[] weights, int size) {
+		int n = size - 1;
+		int ref = heap[n];
+		long weight = weights[n];
+		int k = 0;
+		int half = n >>> 1;
+		while (k < half) {
+			int child = 2 * k + 1;
+			int right = child + 1;
+			if (right < n && weights[child] > weights[right]) {
+				child = right;
+			}
+			if (weight <= weights[child]) break;
+			heap[k] = heap[child];
+			weights[k] = weights[child];
+			k = child;
+		}
+		if (n > 0) {
+			heap[k] = ref;
+			weights[k] = weight;
+		}
+		return n;
+	}
+
+	private int addInternal(int left, int right) {
+		int node = myInternal++;
+		myChildren[2 * node] = left;
+		myChildren[2 * node + 1] = right;
+		return node;
+	}
+
+	/**
+	 * Build the tree whose root-to-leaf paths are the canonical codes
+	 * for the lengths. A lone symbol has code 0, and 1 decodes to it as
+	 * well so the tree is full.
+	 * @param lengths is the code length of each symbol, 0 if absent
+	 * @return the canonical tree
+	 */
+	public static FlatHuffTree fromLengths(int[] lengths) {
+		long[] codes = CanonicalCode.codesFromLengths(lengths);
+		int symbols = 0;
+		int only = 0;
+		for (int sym = 0; sym < lengths.length; sym++) {
+			if (lengths[sym] > 0) {
+				symbols++;
+				only = sym;
+			}
+		}
+
+		FlatHuffTree tree = new FlatHuffTree(Math.max(symbols - 1, 1), Math.max(lengths.length, HuffProcessor.ALPH_SIZE + 1));
+		int root = tree.addInternal(0, 0);
+		tree.myRoot = root;
+		if (symbols == 1) {
+			tree.myChildren[0] = ~only;
+			tree.myChildren[1] = ~only;
+			return tree;
+		}
+
+		//0 marks a child not yet filled in, safe because no node links back to the root
+		for (int sym = 0; sym < lengths.length; sym++) {
+			int len = lengths[sym];
+			if (len == 0) continue;
+
+			int node = root;
+			for (int bit = len - 1; bit > 0; bit--) {
+				int slot = 2 * node + (int) ((codes[sym] >>> bit) & 1);
+				if (tree.myChildren[slot] == 0) {
+					tree.myChildren[slot] = tree.addInternal(0, 0);
+				}
+				node = tree.myChildren[slot];
+			}
+			tree.myChildren[2 * node + (int) (codes[sym] & 1)] = ~sym;
+		}
+		return tree;
+	}
+
+	/**
+	 * Read a tree written pre-order by writeHeader: 0 for an internal
+	 * node followed by its subtrees, 1 followed by a 9-bit value for a leaf
+	 * @param in is positioned just after the magic number
+	 * @return the tree read
+	 * @throws HuffException if the header is truncated or too large
+	 */
+	public static FlatHuffTree readHeader(BitInputStream in) {
+		FlatHuffTree tree = new FlatHuffTree(HuffProcessor.ALPH_SIZE);
+		tree.myRoot = tree.readHelper(in);
+		return tree;
+	}
+
+	private int readHelper(BitInputStream in) {
+		int bits = in.readBits(1);
+		if (bits == -1) {
+			throw new HuffException("unable to read bits");
+		}
+
+		//a leaf stores the symbol in the next BITS_PER_WORD + 1 bits
+		if (bits == 1) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD + 1);
+			if (value == -1) {
+				throw new HuffException("unable to read bits");
+			}
+			return ~value;
+		}
+
+		if (myInternal == myChildren.length / 2) {
+			throw new HuffException("tree header has too many nodes");
+		}
+		int node = addInternal(0, 0);
+		myChildren[2 * node] = readHelper(in);
+		myChildren[2 * node + 1] = readHelper(in);
+		return node;
+	}
+
+	/**
+	 * Write the tree pre-order as described in readHeader
+	 * @param out is positioned just after the magic number
+	 */
+	public void writeHeader(BitOutputStream out) {
+		writeHelper(myRoot, out);
+	}
+
+	private void writeHelper(int ref, BitOutputStream out) {
+		if (ref < 0) {
+			out.writeBits(1, 1);
+			out.writeBits(HuffProcessor.BITS_PER_WORD + 1, ~ref);
+			return;
+		}
+		out.writeBits(1, 0);
+		writeHelper(myChildren[2 * ref], out);
+		writeHelper(myChildren[2 * ref + 1], out);
+	}
+
+	/**
+	 * @return reference to the root, a leaf when the tree has one symbol
+	 */
+	public int root() {
+		return myRoot;
+	}
+
+	/**
+	 * @param node is the index of an internal node
+	 * @param bit is 0 for the left child, 1 for the right
+	 * @return reference to the child
+	 */
+	public int child(int node, int bit) {
+		return myChildren[2 * node + bit];
+	}
+
+	/**
+	 * The child array itself, for decoders that walk it in a tight loop
+	 * @return children of internal node i at 2i and 2i+1
+	 */
+	public int[] children() {
+		return myChildren;
+	}
+
+	/**
+	 * @return true if ref is a leaf rather than an internal node
+	 */
+	public static boolean isLeaf(int ref) {
+		return ref < 0;
+	}
+
+	/**
+	 * @return the symbol stored in leaf reference ref
+	 */
+	public static int symbol(int ref) {
+		return ~ref;
+	}
+
+	/**
+	 * @return number of internal nodes
+	 */
+	public int internalNodes() {
+		return myInternal;
+	}
+
+	/**
+	 * Find the depth of each leaf. A tree that is a single leaf gives its
+	 * symbol length 1 so that every symbol costs at least one bit.
+	 * @return code length of each symbol, 0 for symbols not in the tree
+	 */
+	public int[] lengths() {
+		int[] lengths = new int[mySymbols];
+		if (myRoot < 0) {
+			lengths[~myRoot] = 1;
+			return lengths;
+		}
+		lengthHelper(myRoot, 0, lengths);
+		return lengths;
+	}
+
+	private void lengthHelper(int ref, int depth, int[] lengths) {
+		if (ref < 0) {
+			lengths[~ref] = depth;
+			return;
+		}
+		lengthHelper(myChildren[2 * ref], depth + 1, lengths);
+		lengthHelper(myChildren[2 * ref + 1], depth + 1, lengths);
+	}
+
+	/**
+	 * Find the root-to-leaf path of each leaf, 0 for left and 1 for
+	 * right, as a right-aligned number whose width is the length from
+	 * lengths(). A tree that is a single leaf gives its symbol code 0.
+	 * @return code of each symbol, 0 for symbols not in the tree
+	 */
+	public long[] codes() {
+		long[] codes = new long[mySymbols];
+		if (myRoot >= 0) {
+			codeHelper(myRoot, 0, codes);
+		}
+		return codes;
+	}
+
+	private void codeHelper(int ref, long path, long[] codes) {
+		if (ref < 0) {
+			codes[~ref] = path;
+			return;
+		}
+		codeHelper(myChildren[2 * ref], path << 1, codes);
+		codeHelper(myChildren[2 * ref + 1], (path << 1) | 1, codes);
+	}
+
+	/**
+	 * Copy a HuffNode tree
+	 * @param root is the root of the tree
+	 * @return flat copy with the same shape and leaf values
+	 */
+	public static FlatHuffTree fromHuffNode(HuffNode root) {
+		FlatHuffTree tree = new FlatHuffTree(countInternal(root));
+		tree.myRoot = tree.copyHelper(root);
+		return tree;
+	}
+
+	private static int countInternal(HuffNode root) {
+		if (root.myLeft == null && root.myRight == null) return 0;
+		return 1 + countInternal(root.myLeft) + countInternal(root.myRight);
+	}
+
+	private int copyHelper(HuffNode root) {
+		if (root.myLeft == null && root.myRight == null) {
+			return ~root.myValue;
+		}
+		int node = addInternal(0, 0);
+		myChildren[2 * node] = copyHelper(root.myLeft);
+		myChildren[2 * node + 1] = copyHelper(root.myRight);
+		return node;
+	}
+
+	/**
+	 * View this tree as HuffNode objects. Weights are not kept and are 0.
+	 * @return root of an equivalent HuffNode tree
+	 */
+	public HuffNode toHuffNode() {
+		return toHuffNode(myRoot);
+	}
+
+	private HuffNode toHuffNode(int ref) {
+		if (ref < 0) {
+			return new HuffNode(~ref, 0);
+		}
+		return new HuffNode(0, 0, toHuffNode(myChildren[2 * ref]), toHuffNode(myChildren[2 * ref + 1]));
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Byte-at-a-time finite-state-machine decoder. Every internal node of the
+ * tree is a state, meaning "this much of a code has been read". For each
+ * state and each of the 256 possible input bytes, a table records the
+ * state the eight bits lead to and the words completed along the way,
+ * so decoding is one lookup per compressed byte.
+ * <P>
+ * Memory grows with the tree: one int and one long per state and byte
+ * value, about 3 KB per internal node. A full 257-symbol tree needs
+ * roughly 780 KB; see memoryBytes.
+ */
+
+public class FsmDecoder implements HuffDecoder {
+
+	private static final int STATE_MASK = 0xffff;
+	private static final int COUNT_SHIFT = 16;
+	private static final int COUNT_MASK = 0xf;
+	private static final int EOF_FLAG = 1 << 20;
+	private static final int BYTE_VALUES = 1 << HuffProcessor.BITS_PER_WORD;
+
+	private final int[] myChildren;
+	private final int myRoot;
+	private final int[] myTransitions;
+	private final long[] myWords;
+
+	/**
+	 * Construct the transition tables for the tree
+	 * @param tree is the Huffman tree read from the header, with at
+	 * least two leaves
+	 */
+	public FsmDecoder(FlatHuffTree tree) {
+		if (FlatHuffTree.isLeaf(tree.root())) {
+			throw new HuffException("state machine needs a tree with an internal node");
+		}
+		myChildren = tree.children();
+		myRoot = tree.root();
+		int states = tree.internalNodes();
+		myTransitions = new int[states * BYTE_VALUES];
+		myWords = new long[states * BYTE_VALUES];
+		for (int state = 0; state < states; state++) {
+			for (int value = 0; value < BYTE_VALUES; value++) {
+				fillTransition(state, value);
+			}
+		}
+	}
+
+	/**
+	 * Walk the eight bits of value starting at state. An entry packs the
+	 * end state, the number of words completed, and EOF_FLAG if
+	 * PSEUDO_EOF was reached, after which the remaining bits are padding.
+	 */
+	private void fillTransition(int state, int value) {
+		int node = state;
+		int count = 0;
+		long words = 0;
+		int eof = 0;
+		for (int bit = HuffProcessor.BITS_PER_WORD - 1; bit >= 0; bit--) {
+			int ref = myChildren[2 * node + ((value >>> bit) & 1)];
+			if (!FlatHuffTree.isLeaf(ref)) {
+				node = ref;
+				continue;
+			}
+			if (FlatHuffTree.symbol(ref) == HuffProcessor.PSEUDO_EOF) {
+				eof = EOF_FLAG;
+				break;
+			}
+			words = (words << HuffProcessor.BITS_PER_WORD) | FlatHuffTree.symbol(ref);
+			count++;
+			node = myRoot;
+		}
+		int index = state * BYTE_VALUES + value;
+		myTransitions[index] = eof | (count << COUNT_SHIFT) | node;
+		myWords[index] = words;
+	}
+
+	/**
+	 * @return bytes used by the transition tables
+	 */
+	public long memoryBytes() {
+		return (long) myTransitions.length * Integer.BYTES + (long) myWords.length * Long.BYTES;
+	}
+
+	/**
+	 * Decode words from in, writing each to out, until PSEUDO_EOF is
+	 * decoded. Output is identical to walking the tree bit by bit.
+	 * @param in is positioned at the first bit after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		int state = myRoot;
+		while (true) {
+			int value = in.readBits(HuffProcessor.BITS_PER_WORD);
+			if (value == -1) break;
+
+			int index = state * BYTE_VALUES + value;
+			int transition = myTransitions[index];
+			int count = (transition >>> COUNT_SHIFT) & COUNT_MASK;
+			if (count > 0) {
+				writeWords(myWords[index], count, out);
+			}
+			if ((transition & EOF_FLAG) != 0) {
+				return;
+			}
+			state = transition & STATE_MASK;
+		}
+
+		//fewer than eight bits are left; finish one bit at a time
+		while (true) {
+			int bit = in.readBits(1);
+			if (bit == -1) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			int ref = myChildren[2 * state + bit];
+			if (!FlatHuffTree.isLeaf(ref)) {
+				state = ref;
+				continue;
+			}
+			if (FlatHuffTree.symbol(ref) == HuffProcessor.PSEUDO_EOF) {
+				return;
+			}
+			out.writeBits(HuffProcessor.BITS_PER_WORD, FlatHuffTree.symbol(ref));
+			state = myRoot;
+		}
+	}
+
+	/**
+	 * Write count words packed low-order-last in words, at most four
+	 * per writeBits call
+	 */
+	private static void writeWords(long words, int count, BitOutputStream out) {
+		if (count > 4) {
+			out.writeBits((count - 4) * HuffProcessor.BITS_PER_WORD, (int) (words >>> HuffProcessor.BITS_PER_INT));
+			count = 4;
+		}
+		out.writeBits(count * HuffProcessor.BITS_PER_WORD, (int) words);
+	}
+}
@@ -0,0 +1,632 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Times the decoding engines against each other. Each file is compressed
+ * once into memory, then decompressed repeatedly with every decoder;
+ * the best of several runs is reported in MB/s of decoded output.
+ * <P>
+ * With -bits as the first argument, times BitInputStream instead: plain
+ * readBits(8), then consuming each byte's Huffman code length either
+ * with readBits(length) or with peekBits(11) and skipBits(length) the
+ * way TableDecoder does.
+ * <P>
+ * With -encode as the first argument, times the pass that writes codes:
+ * one readBits(8) and one writeLongBits per word, against BulkEncoder.
+ * <P>
+ * With -count as the first argument, times the counting pass: readBits(8)
+ * into one table, a byte[] loop into one table, ByteCounter, and
+ * ParallelCounter on the mapped file with one thread per processor.
+ * <P>
+ * With -blocks as the first argument, times HUFF_BLOCKS compression and
+ * file-to-file decompression with 1, 2, 4, ... threads up to the number
+ * of processors.
+ * <P>
+ * With -adaptive as the first argument, compares HUFF_ADAPTIVE with the
+ * two-pass HUFF_TREE: compressed size as a percentage of the original,
+ * then compress and decompress speed.
+ * <P>
+ * With -context or -bwt as the first argument, compares HUFF_CONTEXT or
+ * HUFF_BWT with HUFF_CANON the same way.
+ * <P>
+ * With -lz as the first argument, compares HUFF_CANON with HUFF_LZ at
+ * the fast, default and best search depths the same way.
+ * <P>
+ * With -trained as the first argument, cuts the start of each file into
+ * small messages and compares HUFF_CANON with HUFF_TRAINED using the
+ * registry's kjv10 table: total compressed size as a percentage of the
+ * messages, then microseconds to compress and decompress one message.
+ * <P>
+ * With -deep as the only argument, builds input whose Huffman codes run
+ * past 32 bits, checks that HUFF_TREE, HUFF_CANON and HUFF_INTERLEAVED
+ * round-trip it with every decoder, and times each decoder.
+ * <P>
+ * Run with file names as arguments, or with none to use every
+ * uncompressed file in data/.
+ */
+
+public class HuffBenchmark {
+
+	private static final int WARMUP = 3;
+	private static final int RUNS = 5;
+
+	private static final int[] DECODERS = {
+			HuffProcessor.DECODE_TREE, HuffProcessor.DECODE_TABLE, HuffProcessor.DECODE_MULTI,
+			HuffProcessor.DECODE_FSM };
+	private static final String[] DECODER_NAMES = { "tree", "table", "multi", "fsm" };
+
+	private static final String TRAINED_TABLE = "kjv10";
+	private static final int[] MESSAGE_SIZES = { 256, 1024, 4096 };
+	private static final int MESSAGES = 64;
+
+	private static final int DEEP_SYMBOLS = 33;
+	private static final int[] DEEP_FORMATS = {
+			HuffProcessor.HUFF_TREE, HuffProcessor.HUFF_CANON, HuffProcessor.HUFF_INTERLEAVED };
+	private static final String[] DEEP_FORMAT_NAMES = { "tree", "canon", "interleaved" };
+
+	// keeps the JIT from discarding values read but never used
+	private static volatile long ourSink;
+
+	public static void main(String[] args) throws IOException {
+		boolean bits = args.length > 0 && args[0].equals("-bits");
+		boolean encode = args.length > 0 && args[0].equals("-encode");
+		boolean count = args.length > 0 && args[0].equals("-count");
+		boolean blocks = args.length > 0 && args[0].equals("-blocks");
+		boolean adaptive = args.length > 0 && args[0].equals("-adaptive");
+		boolean trained = args.length > 0 && args[0].equals("-trained");
+		boolean context = args.length > 0 && args[0].equals("-context");
+		boolean bwt = args.length > 0 && args[0].equals("-bwt");
+		boolean lz = args.length > 0 && args[0].equals("-lz");
+		boolean deep = args.length > 0 && args[0].equals("-deep");
+		int first = bits || encode || count || blocks || adaptive || trained || context || bwt || lz || deep ? 1 : 0;
+		//an option anywhere but first, or one not listed above, would otherwise be read as a missing file
+		for (int k = first; k < args.length; k++) {
+			if (args[k].startsWith("-")) {
+				throw new HuffException("unknown option " + args[k] + ", give one option before any files");
+			}
+		}
+		if (deep) {
+			if (args.length > 1) {
+				throw new HuffException("-deep builds its own input and takes no files");
+			}
+			benchmarkDeep();
+			return;
+		}
+		File[] files = args.length > first ? new File[args.length - first] : defaultFiles();
+		for (int k = first; k < args.length; k++) {
+			files[k - first] = new File(args[k]);
+		}
+
+		if (bits) {
+			System.out.printf("%-14s%10s%10s%10s  (input MB/s)%n", "file", "read8", "readN", "peek+skip");
+			for (File f : files) {
+				benchmarkBits(f);
+			}
+			return;
+		}
+		if (trained) {
+			System.out.printf("%-14s%8s%10s%10s%10s%10s%10s%10s%n", "file", "size", "canon %", "train %", "canon c",
+					"train c", "canon d", "train d");
+			for (File f : files) {
+				for (int size : MESSAGE_SIZES) {
+					benchmarkTrained(f, size);
+				}
+			}
+			return;
+		}
+		if (adaptive) {
+			System.out.printf("%-14s%10s%10s%10s%10s%10s%10s%n", "file", "tree %", "adapt %", "tree c", "adapt c",
+					"tree d", "adapt d");
+			for (File f : files) {
+				benchmarkFormats(f, HuffProcessor.HUFF_TREE, HuffProcessor.HUFF_ADAPTIVE);
+			}
+			return;
+		}
+		if (context) {
+			System.out.printf("%-14s%10s%10s%10s%10s%10s%10s%n", "file", "canon %", "ctx %", "canon c", "ctx c",
+					"canon d", "ctx d");
+			for (File f : files) {
+				benchmarkFormats(f, HuffProcessor.HUFF_CANON, HuffProcessor.HUFF_CONTEXT);
+			}
+			return;
+		}
+		if (bwt) {
+			System.out.printf("%-14s%10s%10s%10s%10s%10s%10s%n", "file", "canon %", "bwt %", "canon c", "bwt c",
+					"canon d", "bwt d");
+			for (File f : files) {
+				benchmarkFormats(f, HuffProcessor.HUFF_CANON, HuffProcessor.HUFF_BWT);
+			}
+			return;
+		}
+		if (lz) {
+			System.out.printf("%-14s%10s%10s%10s%10s%10s%10s%10s%10s%10s%10s%10s%10s%n", "file", "canon %", "fast %",
+					"lz %", "best %", "canon c", "fast c", "lz c", "best c", "canon d", "fast d", "lz d", "best d");
+			for (File f : files) {
+				benchmarkLevels(f);
+			}
+			return;
+		}
+		if (blocks) {
+			int[] threads = threadCounts();
+			System.out.printf("%-14s", "file");
+			for (int t : threads) {
+				System.out.printf("%10s", t + " thr");
+			}
+			System.out.println("  (compress, then decompress MB/s)");
+			for (File f : files) {
+				benchmarkBlocks(f, threads);
+			}
+			return;
+		}
+		if (count) {
+			System.out.printf("%-14s%10s%10s%10s%10s  (input MB/s)%n", "file", "read8", "one", "tables", "mapped");
+			for (File f : files) {
+				benchmarkCount(f);
+			}
+			return;
+		}
+		if (encode) {
+			System.out.printf("%-14s%10s%10s  (input MB/s)%n", "file", "per-word", "bulk");
+			for (File f : files) {
+				benchmarkEncode(f);
+			}
+			return;
+		}
+
+		System.out.printf("%-14s", "file");
+		for (String name : DECODER_NAMES) {
+			System.out.printf("%10s", name);
+		}
+		System.out.println("  (decode MB/s)");
+		for (File f : files) {
+			benchmarkDecoders(f);
+		}
+	}
+
+	private static File[] defaultFiles() {
+		File[] files = new File("data").listFiles((dir, name) -> !name.endsWith(".hf"));
+		if (files == null) {
+			throw new HuffException("no data directory, give files as arguments");
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static void benchmarkDecoders(File f) throws IOException {
+		if (f.length() == 0) return;
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		new HuffProcessor().compress(new BitInputStream(f), new BitOutputStream(compressed));
+		byte[] bytes = compressed.toByteArray();
+
+		System.out.printf("%-14s", f.getName());
+		for (int decoder : DECODERS) {
+			HuffProcessor hp = new HuffProcessor();
+			hp.setDecoder(decoder);
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				hp.decompress(new BitInputStream(new ByteArrayInputStream(bytes)), new BitOutputStream(new Discard()));
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			System.out.printf("%10.1f", f.length() / (best / 1e9) / 1e6);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Build input whose Huffman tree is as deep as it has symbols: symbol
+	 * k, counting up from '!', occurs in one run as often as the Fibonacci
+	 * number 1, 2, 3, 5, ... in place k. 33 symbols give a 33-bit code
+	 * from 14.9 MB.
+	 * @param symbols is the number of distinct bytes, few enough that the
+	 * input fits in an array
+	 * @return the input, built the same way every time
+	 */
+	static byte[] fibonacciInput(int symbols) {
+		int[] runs = new int[symbols];
+		long size = 0;
+		for (int k = 0; k < symbols; k++) {
+			runs[k] = k < 2 ? k + 1 : runs[k - 1] + runs[k - 2];
+			size += runs[k];
+		}
+		byte[] bytes = new byte[Math.toIntExact(size)];
+		int pos = 0;
+		for (int k = 0; k < symbols; k++) {
+			Arrays.fill(bytes, pos, pos + runs[k], (byte) ('!' + k));
+			pos += runs[k];
+		}
+		return bytes;
+	}
+
+	private static void benchmarkDeep() {
+		byte[] bytes = fibonacciInput(DEEP_SYMBOLS);
+		System.out.printf("%-14s", "format");
+		for (String name : DECODER_NAMES) {
+			System.out.printf("%10s", name);
+		}
+		System.out.println("  (decode MB/s)");
+		for (int f = 0; f < DEEP_FORMATS.length; f++) {
+			HuffProcessor hp = new HuffProcessor();
+			hp.setFormat(DEEP_FORMATS[f]);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			hp.compress(new BitInputStream(new ByteArrayInputStream(bytes)), new BitOutputStream(compressed));
+			byte[] packed = compressed.toByteArray();
+
+			System.out.printf("%-14s", DEEP_FORMAT_NAMES[f]);
+			for (int d = 0; d < DECODERS.length; d++) {
+				hp.setDecoder(DECODERS[d]);
+				ByteArrayOutputStream decoded = new ByteArrayOutputStream(bytes.length);
+				hp.decompress(new BitInputStream(new ByteArrayInputStream(packed)), new BitOutputStream(decoded));
+				if (!Arrays.equals(bytes, decoded.toByteArray())) {
+					throw new HuffException(DEEP_FORMAT_NAMES[f] + " does not round-trip with the "
+							+ DECODER_NAMES[d] + " decoder");
+				}
+				long best = Long.MAX_VALUE;
+				for (int run = 0; run < WARMUP + RUNS; run++) {
+					long start = System.nanoTime();
+					hp.decompress(new BitInputStream(new ByteArrayInputStream(packed)), new BitOutputStream(new Discard()));
+					long elapsed = System.nanoTime() - start;
+					if (run >= WARMUP) {
+						best = Math.min(best, elapsed);
+					}
+				}
+				System.out.printf("%10.1f", bytes.length / (best / 1e9) / 1e6);
+			}
+			System.out.println();
+		}
+	}
+
+	private static void benchmarkBits(File f) throws IOException {
+		if (f.length() == 0) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		int[] counts = new int[HuffProcessor.ALPH_SIZE + 1];
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		for (byte b : bytes) {
+			counts[b & 0xff]++;
+		}
+		int[] lengths = FlatHuffTree.fromCounts(counts).lengths();
+
+		//consume the bytes' own code lengths from the file itself, a stand-in for decoding
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		long sink = 0;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			for (int mode = 0; mode < best.length; mode++) {
+				BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes));
+				long start = System.nanoTime();
+				if (mode == 0) {
+					int value;
+					while ((value = in.readBits(8)) != -1) sink += value;
+				}
+				else {
+					int k = 0;
+					while (true) {
+						int len = lengths[bytes[k] & 0xff];
+						if (++k == bytes.length) k = 0;
+						if (mode == 1) {
+							int value = in.readBits(len);
+							if (value == -1) break;
+							sink += value;
+						}
+						else {
+							sink += in.peekBits(TableDecoder.DEFAULT_TABLE_BITS);
+							if (in.skipBits(len) == -1) break;
+						}
+					}
+				}
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					best[mode] = Math.min(best[mode], elapsed);
+				}
+			}
+		}
+
+		System.out.printf("%-14s", f.getName());
+		for (long time : best) {
+			System.out.printf("%10.1f", bytes.length / (time / 1e9) / 1e6);
+		}
+		System.out.println();
+		ourSink = sink;
+	}
+
+	private static void benchmarkFormats(File f, int first, int second) throws IOException {
+		if (f.length() == 0) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		HuffProcessor[] processors = { new HuffProcessor(), new HuffProcessor() };
+		processors[0].setFormat(first);
+		processors[1].setFormat(second);
+		printFormats(f, bytes, processors);
+	}
+
+	private static void benchmarkLevels(File f) throws IOException {
+		if (f.length() == 0) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		int[] depths = { LzCodec.FAST_SEARCH_DEPTH, LzCodec.DEFAULT_SEARCH_DEPTH, LzCodec.BEST_SEARCH_DEPTH };
+		HuffProcessor[] processors = new HuffProcessor[depths.length + 1];
+		processors[0] = new HuffProcessor();
+		processors[0].setFormat(HuffProcessor.HUFF_CANON);
+		for (int k = 0; k < depths.length; k++) {
+			processors[k + 1] = new HuffProcessor();
+			processors[k + 1].setFormat(HuffProcessor.HUFF_LZ);
+			processors[k + 1].setSearchDepth(depths[k]);
+		}
+		printFormats(f, bytes, processors);
+	}
+
+	/**
+	 * Compress and decompress bytes with each processor, then print the
+	 * compressed sizes as percentages, and the best compress and
+	 * decompress speeds
+	 */
+	private static void printFormats(File f, byte[] bytes, HuffProcessor[] processors) {
+		double[] ratio = new double[processors.length];
+		long[] compress = new long[processors.length];
+		long[] decompress = new long[processors.length];
+		Arrays.fill(compress, Long.MAX_VALUE);
+		Arrays.fill(decompress, Long.MAX_VALUE);
+		for (int k = 0; k < processors.length; k++) {
+			HuffProcessor hp = processors[k];
+			byte[] compressed = null;
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				ByteArrayOutputStream sink = new ByteArrayOutputStream(bytes.length);
+				long start = System.nanoTime();
+				hp.compress(new BitInputStream(new ByteArrayInputStream(bytes)), new BitOutputStream(sink));
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					compress[k] = Math.min(compress[k], elapsed);
+				}
+				compressed = sink.toByteArray();
+			}
+			ratio[k] = 100.0 * compressed.length / bytes.length;
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				hp.decompress(new BitInputStream(new ByteArrayInputStream(compressed)), new BitOutputStream(new Discard()));
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					decompress[k] = Math.min(decompress[k], elapsed);
+				}
+			}
+		}
+
+		System.out.printf("%-14s", f.getName());
+		for (double r : ratio) {
+			System.out.printf("%10.1f", r);
+		}
+		for (long[] times : new long[][] { compress, decompress }) {
+			for (long time : times) {
+				System.out.printf("%10.1f", bytes.length / (time / 1e9) / 1e6);
+			}
+		}
+		System.out.println("  (MB/s)");
+	}
+
+	private static void benchmarkTrained(File f, int size) throws IOException {
+		if (f.length() < size) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		int messages = Math.min(MESSAGES, bytes.length / size);
+		int[] formats = { HuffProcessor.HUFF_CANON, HuffProcessor.HUFF_TRAINED };
+		double[] ratio = new double[formats.length];
+		long[] compress = { Long.MAX_VALUE, Long.MAX_VALUE };
+		long[] decompress = { Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int k = 0; k < formats.length; k++) {
+			HuffProcessor hp = new HuffProcessor();
+			hp.setFormat(formats[k]);
+			if (formats[k] == HuffProcessor.HUFF_TRAINED) {
+				hp.setTable(TRAINED_TABLE);
+			}
+			byte[][] compressed = new byte[messages][];
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				for (int m = 0; m < messages; m++) {
+					ByteArrayOutputStream sink = new ByteArrayOutputStream(size);
+					hp.compress(new BitInputStream(new ByteArrayInputStream(bytes, m * size, size)), new BitOutputStream(sink));
+					compressed[m] = sink.toByteArray();
+				}
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					compress[k] = Math.min(compress[k], elapsed);
+				}
+			}
+			long total = 0;
+			for (byte[] message : compressed) {
+				total += message.length;
+			}
+			ratio[k] = 100.0 * total / ((long) messages * size);
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				for (byte[] message : compressed) {
+					hp.decompress(new BitInputStream(new ByteArrayInputStream(message)), new BitOutputStream(new Discard()));
+				}
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					decompress[k] = Math.min(decompress[k], elapsed);
+				}
+			}
+		}
+
+		System.out.printf("%-14s%8d%10.1f%10.1f", f.getName(), size, ratio[0], ratio[1]);
+		for (long[] times : new long[][] { compress, decompress }) {
+			for (long time : times) {
+				System.out.printf("%10.1f", time / 1e3 / messages);
+			}
+		}
+		System.out.println("  (us per message)");
+	}
+
+	private static int[] threadCounts() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int size = 1;
+		while ((1 << size) <= processors) size++;
+		boolean extra = Integer.bitCount(processors) != 1;
+		int[] threads = new int[extra ? size + 1 : size];
+		for (int k = 0; k < size; k++) {
+			threads[k] = 1 << k;
+		}
+		if (extra) {
+			threads[size] = processors;
+		}
+		return threads;
+	}
+
+	private static void benchmarkBlocks(File f, int[] threads) throws IOException {
+		if (f.length() == 0) return;
+
+		System.out.printf("%-14s", f.getName());
+		for (int t : threads) {
+			HuffProcessor hp = new HuffProcessor();
+			hp.setFormat(HuffProcessor.HUFF_BLOCKS);
+			hp.setThreads(t);
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP + RUNS; run++) {
+				long start = System.nanoTime();
+				hp.compress(f, new BitOutputStream(new Discard()));
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					best = Math.min(best, elapsed);
+				}
+			}
+			System.out.printf("%10.1f", f.length() / (best / 1e9) / 1e6);
+		}
+		System.out.println();
+
+		File compressed = File.createTempFile("bench", ".hf");
+		File decompressed = File.createTempFile("bench", ".out");
+		try {
+			HuffProcessor writer = new HuffProcessor();
+			writer.setFormat(HuffProcessor.HUFF_BLOCKS);
+			writer.compress(f, new BitOutputStream(compressed));
+			System.out.printf("%-14s", "");
+			for (int t : threads) {
+				HuffProcessor hp = new HuffProcessor();
+				hp.setThreads(t);
+				long best = Long.MAX_VALUE;
+				for (int run = 0; run < WARMUP + RUNS; run++) {
+					long start = System.nanoTime();
+					hp.decompress(compressed, decompressed);
+					long elapsed = System.nanoTime() - start;
+					if (run >= WARMUP) {
+						best = Math.min(best, elapsed);
+					}
+				}
+				System.out.printf("%10.1f", f.length() / (best / 1e9) / 1e6);
+			}
+			System.out.println();
+		}
+		finally {
+			compressed.delete();
+			decompressed.delete();
+		}
+	}
+
+	private static void benchmarkCount(File f) throws IOException {
+		if (f.length() == 0) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		int threads = Runtime.getRuntime().availableProcessors();
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		long sink = 0;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			for (int mode = 0; mode < best.length; mode++) {
+				BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes));
+				long[] counts = new long[HuffProcessor.ALPH_SIZE + 1];
+				long start = System.nanoTime();
+				if (mode == 0) {
+					int value;
+					while ((value = in.readBits(8)) != -1) counts[value]++;
+				}
+				else if (mode == 1) {
+					byte[] chunk = new byte[ByteCounter.CHUNK_SIZE];
+					int read;
+					while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+						for (int k = 0; k < read; k++) counts[chunk[k] & 0xff]++;
+					}
+				}
+				else if (mode == 2) {
+					ByteCounter counter = new ByteCounter();
+					counter.add(in);
+					counter.addTo(counts);
+				}
+				else {
+					ParallelCounter.addTo(f, threads, counts);
+				}
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					best[mode] = Math.min(best[mode], elapsed);
+				}
+				sink += counts[bytes[0] & 0xff];
+			}
+		}
+
+		System.out.printf("%-14s", f.getName());
+		for (long time : best) {
+			System.out.printf("%10.1f", bytes.length / (time / 1e9) / 1e6);
+		}
+		System.out.println();
+		ourSink = sink;
+	}
+
+	private static void benchmarkEncode(File f) throws IOException {
+		if (f.length() == 0) return;
+
+		byte[] bytes = java.nio.file.Files.readAllBytes(f.toPath());
+		int[] counts = new int[HuffProcessor.ALPH_SIZE + 1];
+		counts[HuffProcessor.PSEUDO_EOF] = 1;
+		for (byte b : bytes) {
+			counts[b & 0xff]++;
+		}
+		FlatHuffTree tree = FlatHuffTree.fromCounts(counts);
+		int[] lengths = tree.lengths();
+		long[] codes = tree.codes();
+
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			for (int mode = 0; mode < best.length; mode++) {
+				BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes));
+				BitOutputStream out = new BitOutputStream(new Discard());
+				long start = System.nanoTime();
+				if (mode == 0) {
+					int value;
+					while ((value = in.readBits(8)) != -1) {
+						out.writeLongBits(lengths[value], codes[value]);
+					}
+				}
+				else {
+					BulkEncoder encoder = new BulkEncoder(codes, lengths, out);
+					encoder.encode(in);
+					encoder.finish();
+				}
+				out.flush();
+				long elapsed = System.nanoTime() - start;
+				if (run >= WARMUP) {
+					best[mode] = Math.min(best[mode], elapsed);
+				}
+			}
+		}
+
+		System.out.printf("%-14s", f.getName());
+		for (long time : best) {
+			System.out.printf("%10.1f", bytes.length / (time / 1e9) / 1e6);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * OutputStream that drops everything written so only decoding is timed
+	 */
+	private static class Discard extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
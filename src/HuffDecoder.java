@@ -0,0 +1,18 @@
+/**
+ * Turns the codes that follow a header back into words. Decoders are
+ * built once per code and hold no state between calls, so one decoder
+ * can be used for any number of streams coded with the same code, from
+ * any number of threads.
+ */
+
+public interface HuffDecoder {
+
+	/**
+	 * Decode words from in, writing each to out, until PSEUDO_EOF is
+	 * decoded
+	 * @param in is positioned at the first bit after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	void decode(BitInputStream in, BitOutputStream out);
+}
@@ -1,4 +1,12 @@
-import java.util.PriorityQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Although this class has a history of several years,
@@ -19,18 +27,208 @@ public class HuffProcessor {
 	public static final int PSEUDO_EOF = ALPH_SIZE;
 	public static final int HUFF_NUMBER = 0xface8200;
 	public static final int HUFF_TREE  = HUFF_NUMBER | 1;
+	public static final int HUFF_CANON = HUFF_NUMBER | 2;
+	public static final int HUFF_INTERLEAVED = HUFF_NUMBER | 3;
+	public static final int HUFF_BLOCKS = HUFF_NUMBER | 4;
+	public static final int HUFF_ADAPTIVE = HUFF_NUMBER | 5;
+	public static final int HUFF_TRAINED = HUFF_NUMBER | 6;
+	public static final int HUFF_CONTEXT = HUFF_NUMBER | 7;
+	public static final int HUFF_WIDE = HUFF_NUMBER | 8;
+	public static final int HUFF_BWT = HUFF_NUMBER | 9;
+	public static final int HUFF_LZ = HUFF_NUMBER | 10;
+
+	private static final Set<Integer> FORMATS = Set.of(HUFF_TREE, HUFF_CANON, HUFF_INTERLEAVED, HUFF_BLOCKS,
+			HUFF_ADAPTIVE, HUFF_TRAINED, HUFF_CONTEXT, HUFF_WIDE, HUFF_BWT, HUFF_LZ);
+	//formats coded from one count of the whole file, which compress(File) can split across threads
+	private static final Set<Integer> COUNTED_FORMATS = Set.of(HUFF_TREE, HUFF_CANON, HUFF_INTERLEAVED);
 
 	private final int myDebugLevel;
 	
 	public static final int DEBUG_HIGH = 4;
 	public static final int DEBUG_LOW = 1;
 	
+	public static final int DECODE_TREE = 0;
+	public static final int DECODE_TABLE = 1;
+	public static final int DECODE_MULTI = 2;
+	public static final int DECODE_FSM = 3;
+	
+	private int myDecoder;
+	private int myFormat;
+	private int myMaxCodeLength;
+	private int myThreads;
+	private int myBlockSize;
+	private int myWordBits;
+	private int mySearchDepth;
+	private TrainedTable myTable;
+	private Map<Integer, HuffDecoder> myTrainedDecoders;
+	
 	public HuffProcessor() {
 		this(0);
 	}
 	
 	public HuffProcessor(int debug) {
 		myDebugLevel = debug;
+		myDecoder = DECODE_TABLE;
+		myFormat = HUFF_TREE;
+		myMaxCodeLength = 0;
+		myThreads = 1;
+		myBlockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+		myWordBits = BITS_PER_WORD;
+		mySearchDepth = LzCodec.DEFAULT_SEARCH_DEPTH;
+		myTrainedDecoders = new HashMap<>();
+	}
+	
+	/**
+	 * Selects the header format written by compress. Decompress
+	 * recognizes every format from its magic number.
+	 *
+	 * @param format
+	 *            one of
+	 *            <ul>
+	 *            <li>HUFF_TREE: the tree, stored pre-order
+	 *            <li>HUFF_CANON: only the code length of each symbol
+	 *            <li>HUFF_INTERLEAVED: blocks split into four sub-streams that decode in parallel
+	 *            <li>HUFF_BLOCKS: blocks coded independently, each with its own code
+	 *            <li>HUFF_ADAPTIVE: one pass, updating the code after every word
+	 *            <li>HUFF_TRAINED: the table chosen by setTable, stored only by its ID
+	 *            <li>HUFF_CONTEXT: each word's code chosen by the word before it
+	 *            <li>HUFF_WIDE: words of the width set by setWordBits
+	 *            <li>HUFF_BWT: blocks after Burrows-Wheeler, move-to-front and run-length coding
+	 *            <li>HUFF_LZ: repeated strings replaced by LZ77 matches as deep as setSearchDepth allows
+	 *            </ul>
+	 * @throws HuffException if format is not one of these
+	 */
+	public void setFormat(int format) {
+		if (!isKnownFormat(format)) {
+			throw new HuffException("unknown format " + Integer.toHexString(format));
+		}
+		myFormat = format;
+	}
+	
+	/**
+	 * @return true if format is the magic number of a format compress can write
+	 */
+	public static boolean isKnownFormat(int format) {
+		return FORMATS.contains(format);
+	}
+	
+	/**
+	 * Limits the length of every code written by compress. When the
+	 * Huffman tree is deeper than the limit, code lengths are rebuilt
+	 * with package-merge, which is optimal among codes within the limit.
+	 * HUFF_INTERLEAVED always limits codes, by default to
+	 * InterleavedCodec.DEFAULT_MAX_CODE_LENGTH bits.
+	 *
+	 * @param maxLength
+	 *            longest code allowed in bits, or 0 for no limit
+	 */
+	public void setMaxCodeLength(int maxLength) {
+		if (maxLength < 0 || maxLength > CanonicalCode.MAX_CODE_LENGTH) {
+			throw new HuffException("code length limit must be on [1, " + CanonicalCode.MAX_CODE_LENGTH + "] or 0");
+		}
+		myMaxCodeLength = maxLength;
+	}
+	
+	/**
+	 * Sets the number of words per block written by HUFF_BLOCKS and
+	 * HUFF_BWT. A HUFF_BWT block needs about 20 bytes of memory per word
+	 * while it is transformed, and is at most BwtCodec.MAX_BLOCK_SIZE;
+	 * compress rejects a larger one.
+	 *
+	 * @param blockSize
+	 *            words per block, on [BlockCodec.MIN_BLOCK_SIZE,
+	 *            BlockCodec.MAX_BLOCK_SIZE]
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize < BlockCodec.MIN_BLOCK_SIZE || blockSize > BlockCodec.MAX_BLOCK_SIZE) {
+			throw new HuffException("block size must be on [" + BlockCodec.MIN_BLOCK_SIZE + ", " + BlockCodec.MAX_BLOCK_SIZE + "]");
+		}
+		if (myFormat == HUFF_BWT && blockSize > BwtCodec.MAX_BLOCK_SIZE) {
+			throw new HuffException("HUFF_BWT block size must be at most " + BwtCodec.MAX_BLOCK_SIZE);
+		}
+		myBlockSize = blockSize;
+	}
+	
+	/**
+	 * Sets the width of the words HUFF_WIDE codes, stored in the header
+	 * of each stream. Input whose length is not a whole number of words
+	 * keeps its last few bits uncoded.
+	 *
+	 * @param wordBits
+	 *            bits per word, one of WideCodec.WORD_BITS
+	 */
+	public void setWordBits(int wordBits) {
+		WideCodec.checkWordBits(wordBits);
+		myWordBits = wordBits;
+	}
+	
+	/**
+	 * Sets how many earlier positions HUFF_LZ tries when looking for
+	 * the longest match, trading speed for ratio. LzCodec.FAST_SEARCH_DEPTH
+	 * takes the first good match, while LzCodec.DEFAULT_SEARCH_DEPTH and
+	 * deeper also look one word ahead for a longer one. Decompression
+	 * speed does not depend on the setting.
+	 *
+	 * @param depth
+	 *            chain entries tried per position, on
+	 *            [1, LzCodec.MAX_SEARCH_DEPTH]
+	 */
+	public void setSearchDepth(int depth) {
+		if (depth < 1 || depth > LzCodec.MAX_SEARCH_DEPTH) {
+			throw new HuffException("search depth must be on [1, " + LzCodec.MAX_SEARCH_DEPTH + "]");
+		}
+		mySearchDepth = depth;
+	}
+	
+	/**
+	 * Selects the trained table HUFF_TRAINED compresses with. Decompress
+	 * finds the table from the ID stored in the stream.
+	 *
+	 * @param name
+	 *            name of a table in TableRegistry.shared()
+	 */
+	public void setTable(String name) {
+		TrainedTable table = TableRegistry.shared().byName(name);
+		if (table == null) {
+			throw new HuffException("no trained table named " + name);
+		}
+		myTable = table;
+	}
+	
+	/**
+	 * Selects the engine used by decompress to turn compressed bits
+	 * back into words.
+	 *
+	 * @param decoder
+	 *            DECODE_TREE to walk the tree one bit at a time,
+	 *            DECODE_TABLE to resolve one symbol per table lookup,
+	 *            DECODE_MULTI to resolve several symbols per table lookup, or
+	 *            DECODE_FSM to consume one compressed byte per lookup
+	 */
+	public void setDecoder(int decoder) {
+		if (decoder < DECODE_TREE || decoder > DECODE_FSM) {
+			throw new HuffException("unknown decoder " + decoder);
+		}
+		myDecoder = decoder;
+		myTrainedDecoders.clear();
+	}
+	
+	/**
+	 * Sets how many threads compress and decompress may use. With more
+	 * than one, HUFF_BLOCKS codes blocks in parallel, and decodes them in
+	 * parallel when decompressing a File. HUFF_BWT transforms and inverts
+	 * blocks in parallel. For the other formats the
+	 * counting pass of a File memory-maps it and counts segments in
+	 * parallel. Output does not depend on the setting.
+	 *
+	 * @param threads
+	 *            number of threads, at least 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new HuffException("thread count must be at least 1");
+		}
+		myThreads = threads;
 	}
 
 	/**
@@ -42,128 +240,308 @@ public class HuffProcessor {
 	 *            Buffered bit stream writing to the output file.
 	 */
 	public void compress(BitInputStream in, BitOutputStream out){
+		//blocks are counted and coded one at a time, so the input is read only once
+		if(myFormat == HUFF_BLOCKS) {
+			BlockCodec codec = new BlockCodec(this, myBlockSize, myMaxCodeLength, myThreads);
+			out.writeBits(BITS_PER_INT, HUFF_BLOCKS);
+			codec.writeHeader(out);
+			codec.encode(in, out);
+			out.close();
+			if(myDebugLevel >= DEBUG_LOW) {
+				System.out.printf("blocks reusing the previous table: %d\n", codec.reusedTables());
+				double[] busy = codec.utilization();
+				for(int k = 0; k < busy.length; k++) {
+					System.out.printf("block thread %d busy %.1f%%\n", k, 100 * busy[k]);
+				}
+			}
+			return;
+		}
+		
+		//each block is transformed and counted on its own, so the input is read only once
+		if(myFormat == HUFF_BWT) {
+			BwtCodec codec = new BwtCodec(myBlockSize, myMaxCodeLength, myThreads);
+			out.writeBits(BITS_PER_INT, HUFF_BWT);
+			codec.writeHeader(out);
+			codec.encode(in, out);
+			out.close();
+			return;
+		}
+		
+		//matches are found and each block's tables built from its own tokens, so the input is read only once
+		if(myFormat == HUFF_LZ) {
+			LzCodec codec = new LzCodec(mySearchDepth, myMaxCodeLength);
+			out.writeBits(BITS_PER_INT, HUFF_LZ);
+			codec.encode(in, out);
+			out.close();
+			if(myDebugLevel >= DEBUG_LOW) {
+				System.out.printf("%d literals, %d matches\n", codec.literals(), codec.matches());
+			}
+			return;
+		}
+		
+		//the adaptive code needs no counts, so the input is read only once
+		if(myFormat == HUFF_ADAPTIVE) {
+			out.writeBits(BITS_PER_INT, HUFF_ADAPTIVE);
+			new AdaptiveCodec().encode(in, out);
+			out.close();
+			return;
+		}
+		
+		//a trained table is known to both sides, so only its id is written and the input is read once
+		if(myFormat == HUFF_TRAINED) {
+			if(myTable == null) {
+				throw new HuffException("HUFF_TRAINED needs a table, see setTable");
+			}
+			out.writeBits(BITS_PER_INT, HUFF_TRAINED);
+			out.writeBits(BITS_PER_INT, myTable.id());
+			writeCompressedBits(myTable.codes(), myTable.lengths(), in, out);
+			out.close();
+			return;
+		}
+		
+		//every format from here on reads the input twice, so a live stream is recorded for reset
+		in.enableReset();
+		
+		//one table per previous word, chosen from counts of every pair of consecutive words
+		if(myFormat == HUFF_CONTEXT) {
+			ContextCodec codec = ContextCodec.fromCounts(readForContextCounts(in), myMaxCodeLength);
+			out.writeBits(BITS_PER_INT, HUFF_CONTEXT);
+			codec.writeHeader(out);
+			in.reset();
+			codec.encode(in, out);
+			out.close();
+			if(myDebugLevel >= DEBUG_LOW) {
+				System.out.printf("contexts with their own table: %d\n", codec.ownTables());
+			}
+			return;
+		}
+		
+		//words of any width are counted in a hash table, so only the words that occur cost space
+		if(myFormat == HUFF_WIDE) {
+			WideCodec codec = WideCodec.fromInput(in, myWordBits, myMaxCodeLength);
+			out.writeBits(BITS_PER_INT, HUFF_WIDE);
+			codec.writeHeader(out);
+			in.reset();
+			codec.encode(in, out);
+			out.close();
+			if(myDebugLevel >= DEBUG_LOW) {
+				System.out.printf("%d distinct %d-bit words\n", codec.words(), myWordBits);
+			}
+			return;
+		}
+		
 		//creates frequency counts for each 8-bit char using readForCounts helper method
 		int[] counts = readForCounts(in);
+		writeCompressed(counts, in, out);
+	}
+	
+	/**
+	 * Compresses a file on disk. Output is identical to compressing a
+	 * BitInputStream of the same file.
+	 *
+	 * @param in
+	 *            File to be compressed.
+	 * @param out
+	 *            Buffered bit stream writing to the output file.
+	 */
+	public void compress(File in, BitOutputStream out){
+		BitInputStream bits = new BitInputStream(in);
+		if(myThreads == 1 || !COUNTED_FORMATS.contains(myFormat)) {
+			compress(bits, out);
+			return;
+		}
+		
+		//count segments of the mapped file on several threads, then encode from the start of the file
+		long[] counts = new long[ALPH_SIZE+1];
+		counts[PSEUDO_EOF] = 1;
+		ParallelCounter.addTo(in, myThreads, counts);
+		writeCompressed(ByteCounter.fit(counts), bits, out);
+	}
+	
+	private void writeCompressed(int[] counts, BitInputStream in, BitOutputStream out) {
+		//interleaved streams share one length-limited canonical code and need no tree
+		if(myFormat == HUFF_INTERLEAVED) {
+			int limit = myMaxCodeLength > 0 ? myMaxCodeLength : InterleavedCodec.DEFAULT_MAX_CODE_LENGTH;
+			InterleavedCodec codec = new InterleavedCodec(LengthLimitedCode.lengths(counts, limit));
+			out.writeBits(BITS_PER_INT, HUFF_INTERLEAVED);
+			codec.writeHeader(out);
+			in.reset();
+			codec.encode(in, out);
+			out.close();
+			return;
+		}
 		
 		//create Huffman Tree based on counts of each 8-bit char by determining each character's weight using makeTreeFromCounts helper method
-		HuffNode root = makeTreeFromCounts(counts);
+		FlatHuffTree root = makeTreeFromCounts(counts);
 		
-		//Creates an array of path-based encodings for each char from Huffman tree using makeCodingsFromTree helper method
-		String[] codings = makeCodingsFromTree(root);
+		//replace the tree with a shallower canonical one if it breaks the code length limit
+		if(myMaxCodeLength > 0) {
+			root = limitCodeLengths(root, counts);
+		}
 		
-		//Write "magic" number for Huffman tree at beginning of compressed file
-		out.writeBits(BITS_PER_INT, HUFF_TREE);
-		writeHeader(root, out);
+		//Write "magic" number for the header format at beginning of compressed file
+		out.writeBits(BITS_PER_INT, myFormat);
+		if(myFormat == HUFF_CANON) {
+			//keep only the code lengths and re-shape the tree so its paths are the canonical codes
+			int[] lengths = root.lengths();
+			CanonicalCode.writeLengths(lengths, out);
+			root = FlatHuffTree.fromLengths(lengths);
+		}
+		else {
+			root.writeHeader(out);
+		}
+		
+		//Creates tables of path-based codes and code lengths for each char from Huffman tree
+		int[] lengths = root.lengths();
+		long[] codes = root.codes();
 		
 		//Reset file, read file again, and write the compressed bits for new file based on same weights
 		in.reset();
-		writeCompressedBits(codings, in, out);
+		writeCompressedBits(codes, lengths, in, out);
 		out.close();
 	}
 	
 	private int[] readForCounts(BitInputStream in) {
-		//create array of 257 elements to hold frequencies for each 8-bit char
-		int[] counts = new int[ALPH_SIZE+1];
+		//create array of 257 elements to hold frequencies for each 8-bit char, as longs so huge inputs can't wrap
+		long[] counts = new long[ALPH_SIZE+1];
 		
 		//automatically set count for PSEUDO_EOF to 1 since it is not a real character
 		counts[PSEUDO_EOF] = 1;
 		
+		//read the file in chunks of bytes, spreading increments over several tables that are summed at the end
+		ByteCounter counter = new ByteCounter();
+		counter.add(in);
+		counter.addTo(counts);
 		
-		while(true) {
-			//creates a set of bits from file
-			int bits = in.readBits(BITS_PER_WORD);
-			
-			//breaks out of while loop when end of file is reached
-			if(bits == -1) break;
-			
-			//increment frequency of specific bits location in array
-			counts[bits]++;
-		}
-		return counts;
+		//scale down counts too large for an int, keeping every char that occurs
+		return ByteCounter.fit(counts);
 	}
 	
-	private HuffNode makeTreeFromCounts(int[] counts) {
-		//create priority queue of HuffNodes to sort based on weight and create Huffman tree based on these weights
-		PriorityQueue<HuffNode> pq = new PriorityQueue<>();
+	private int[][] readForContextCounts(BitInputStream in) {
+		//count in one flat array, a row of 257 counts for each 8-bit char that can come before another
+		long[] pairs = new long[ContextCodec.CONTEXTS * (ALPH_SIZE+1)];
 		
-		for(int i = 0; i < counts.length; i++) {
-			if(counts[i] > 0) {
-				//for characters that occurred at least once, places in Priority Queue
-				pq.add(new HuffNode(i,counts[i],null,null));
+		//read the file in chunks of bytes, counting each char in the row of the char before it, the first after char 0
+		byte[] chunk = new byte[ByteCounter.CHUNK_SIZE];
+		int row = 0;
+		int read;
+		while((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			for(int k = 0; k < read; k++) {
+				int current = chunk[k] & 0xff;
+				pairs[row + current]++;
+				row = current * (ALPH_SIZE+1);
 			}
 		}
 		
-		while(pq.size() > 1) {
-			//creates two HuffNodes based on the least-weighted ones in Priority Queue
-			HuffNode left = pq.remove();
-			HuffNode right = pq.remove();
-			//combines two least-weight HuffNodes into new HuffNode and adds back to pq
-			HuffNode t = new HuffNode(0, left.myWeight+right.myWeight, left, right);
-			pq.add(t);
-		}
+		//PSEUDO_EOF follows the last char
+		pairs[row + PSEUDO_EOF] = 1;
 		
-		//The only thing left in the priority queue after the while loop completes is one HuffTree
-		HuffNode root = pq.remove();
-		return root;
+		//split the rows apart, scaling down any row with counts too large for an int
+		int[][] counts = new int[ContextCodec.CONTEXTS][];
+		for(int context = 0; context < counts.length; context++) {
+			counts[context] = ByteCounter.fit(Arrays.copyOfRange(pairs, context * (ALPH_SIZE+1), (context+1) * (ALPH_SIZE+1)));
+		}
+		return counts;
 	}
 	
-	private String[] makeCodingsFromTree(HuffNode root) {
-		//initializes array of path encodings based on Huffman tree for all 8-bit charatcers
-		String[] coding = new String[ALPH_SIZE + 1];
+	private FlatHuffTree makeTreeFromCounts(int[] counts) {
+		//merge the two least-weighted subtrees until one tree remains, kept in int arrays rather than HuffNodes
+		FlatHuffTree tree = FlatHuffTree.fromCounts(counts);
 		
-		//calls helper method to create encodings based on recursive method
-		codingHelper(root, "", coding);
-		return coding;
+		//empty input leaves PSEUDO_EOF alone; give it an internal root, as fromLengths does, so every decoder has a path to walk
+		if(FlatHuffTree.isLeaf(tree.root())) {
+			tree = FlatHuffTree.fromLengths(tree.lengths());
+		}
+		return tree;
 	}
 	
-	private void codingHelper(HuffNode root, String path, String[] coding) {
-		//if HuffNode is a leaf, then path gets the value stored at leaf and ends encoding for that specific character
-		if(root.myLeft == null && root.myRight == null) {
-			coding[root.myValue] = path;
-			return;
+	private FlatHuffTree limitCodeLengths(FlatHuffTree root, int[] counts) {
+		int[] lengths = root.lengths();
+		int depth = 0;
+		for(int len : lengths) {
+			depth = Math.max(depth, len);
 		}
 		
-		//adds "0" to path if path is left
-		codingHelper(root.myLeft, path + "0", coding);
+		//the tree already fits, leave it alone so output is unchanged
+		if(depth <= myMaxCodeLength) {
+			return root;
+		}
 		
-		//adds "1" to path if path is right
-		codingHelper(root.myRight, path + "1", coding);
+		int[] limited = LengthLimitedCode.lengths(counts, myMaxCodeLength);
+		if(myDebugLevel >= DEBUG_LOW) {
+			long optimal = LengthLimitedCode.encodedBits(counts, lengths);
+			long bounded = LengthLimitedCode.encodedBits(counts, limited);
+			System.out.printf("code length limit %d (tree depth %d): %d bits vs %d unconstrained, +%.3f%%\n",
+					myMaxCodeLength, depth, bounded, optimal, 100.0 * (bounded - optimal) / optimal);
+		}
+		return FlatHuffTree.fromLengths(limited);
 	}
 	
-	private void writeHeader(HuffNode root, BitOutputStream out) {
-		//if HuffNode is not a leaf, add 0 to traversal of tree
-		if(root.myLeft != null || root.myRight != null) {
-			out.writeBits(1, 0);
-			writeHeader(root.myLeft, out);
-			writeHeader(root.myRight, out);
-		}
+	private void writeCompressedBits(long[] codes, int[] lengths, BitInputStream in, BitOutputStream out) {
+		//encode the file in chunks of bytes, gathering codes in a 64-bit register that is written a long at a time
+		BulkEncoder encoder = new BulkEncoder(codes, lengths, out);
+		encoder.encode(in);
 		
-		//if HuffNode is a leaf, add "1" to traversal of tree, and add character to tree
-		else {
-			out.writeBits(1, 1);
-			out.writeBits(BITS_PER_WORD + 1, root.myValue);
-		}
+		//manually encode and write Huffman tree bits for PSEUDO_EOF
+		encoder.encodeSymbol(PSEUDO_EOF);
+		encoder.finish();
 	}
 	
-	private void writeCompressedBits(String[] codings, BitInputStream in, BitOutputStream out) {
-		while(true) {
-			//read bits for word in file
-			int bits = in.readBits(BITS_PER_WORD);
-			
-			if(bits == -1) break;
-			
-			//store encoding for one specific set of bits in string
-			String bitseq = codings[bits];
+	/**
+	 * Decompresses a file on disk. A HUFF_BLOCKS file is decoded from its
+	 * block index, each block written at its own position in out, on as
+	 * many threads as setThreads allows; any other format is decoded as
+	 * decompress on streams does.
+	 *
+	 * @param in
+	 *            File to be decompressed.
+	 * @param out
+	 *            File the original is written to, replaced if it exists.
+	 */
+	public void decompress(File in, File out){
+		try(FileChannel source = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+			//peek at the magic number to choose between the index and a stream
+			ByteBuffer magic = ByteBuffer.allocate(BITS_PER_INT / BITS_PER_WORD);
+			int read = 0;
+			while(read != -1 && magic.hasRemaining()) {
+				read = source.read(magic, magic.position());
+			}
+			if(magic.hasRemaining() || magic.getInt(0) != HUFF_BLOCKS) {
+				decompress(new BitInputStream(in), new BitOutputStream(out));
+				return;
+			}
 			
-			if(bitseq != null) {
-				//write encoded bit (via Huffman tree) to out
-				out.writeBits(bitseq.length(), Integer.parseInt(bitseq, 2));
+			BlockCodec codec = BlockCodec.readIndex(this, source, myThreads);
+			try(FileChannel target = FileChannel.open(out.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				codec.decode(source, target);
 			}
 		}
-		
-		//manually encode and write Huffman tree bits for PSEUDO_EOF
-		String bitseq = codings[PSEUDO_EOF];
-		out.writeBits(bitseq.length(), Integer.parseInt(bitseq, 2));
+		catch(IOException io) {
+			throw new RuntimeException(io);
+		}
+	}
+	
+	/**
+	 * Decompresses part of a HUFF_BLOCKS file, decoding only the blocks
+	 * that hold the range, so the work depends on the range and the block
+	 * size rather than on the size of the file.
+	 *
+	 * @param in
+	 *            HUFF_BLOCKS file to read from.
+	 * @param offset
+	 *            Position in the original of the first byte wanted.
+	 * @param length
+	 *            Number of bytes wanted.
+	 * @return the bytes of the original at [offset, offset + length)
+	 */
+	public byte[] decompressRange(File in, long offset, int length){
+		try(FileChannel source = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+			return BlockCodec.readIndex(this, source, 1).decodeRange(source, offset, length);
+		}
+		catch(IOException io) {
+			throw new RuntimeException(io);
+		}
 	}
 	
 	/**
@@ -179,42 +557,148 @@ public class HuffProcessor {
 		//read "magic" number from file
 		int bits = in.readBits(BITS_PER_INT);
 		
-		//only process bits if tree used to compress was Huffman tree
-		if(bits != HUFF_TREE) {
+		//interleaved streams carry their own block structure
+		if(bits == HUFF_INTERLEAVED) {
+			InterleavedCodec.readHeader(in).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//each block carries its own code lengths
+		if(bits == HUFF_BLOCKS) {
+			BlockCodec.readHeader(this, in).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//blocks are inverted on as many threads as setThreads allows
+		if(bits == HUFF_BWT) {
+			BwtCodec.readHeader(in, myThreads).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//matches copy from the words already decoded, so no search is needed
+		if(bits == HUFF_LZ) {
+			LzCodec.decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//the adaptive tree is rebuilt word by word exactly as the compressor built it
+		if(bits == HUFF_ADAPTIVE) {
+			new AdaptiveCodec().decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//the table was read when the registry was loaded, and its decoder is kept for the next stream
+		if(bits == HUFF_TRAINED) {
+			trainedDecoder(in.readBits(BITS_PER_INT)).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//each context's table is read from the header and decoded by table lookup
+		if(bits == HUFF_CONTEXT) {
+			ContextCodec.readHeader(in).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//the header gives the word width along with the code
+		if(bits == HUFF_WIDE) {
+			WideCodec.readHeader(in).decode(in, out);
+			out.close();
+			return;
+		}
+		
+		//rebuild the tree from whichever header the magic number announces
+		FlatHuffTree root;
+		if(bits == HUFF_TREE) {
+			root = readTreeHeader(in);
+		}
+		else if(bits == HUFF_CANON) {
+			root = FlatHuffTree.fromLengths(CanonicalCode.readLengths(in));
+		}
+		else {
 			throw new HuffException("illegal header starts with " + bits);
 		}
 		
 		//read bits from file and traverse root-to-leaf paths
-		HuffNode root = readTreeHeader(in);
 		readCompressedBits(root, in, out);
 		out.close();
 	}
 	
-	private HuffNode readTreeHeader(BitInputStream in) {
-		while(true) {
-			int bits = in.readBits(1);
-			
-			if(bits == -1) {
-				throw new HuffException("unable to read bits");
+	private FlatHuffTree readTreeHeader(BitInputStream in) {
+		//0 is an internal node followed by its left and right subtrees, 1 is a leaf followed by its value
+		return FlatHuffTree.readHeader(in);
+	}
+	
+	private void readCompressedBits(FlatHuffTree root, BitInputStream in, BitOutputStream out) {
+		makeDecoder(root).decode(in, out);
+	}
+	
+	/**
+	 * Build the decoder selected by setDecoder for a tree. The decoder
+	 * keeps no state between calls, so it can be reused for every stream
+	 * coded with the same tree.
+	 *
+	 * @param root
+	 *            Huffman tree read from a header.
+	 * @return decoder for codes of root
+	 */
+	HuffDecoder makeDecoder(FlatHuffTree root) {
+		//resolve several bits per lookup unless the bit-at-a-time walk was requested
+		if(myDecoder == DECODE_TABLE) {
+			return new TableDecoder(root);
+		}
+		if(myDecoder == DECODE_MULTI) {
+			return new MultiSymbolDecoder(root);
+		}
+		if(myDecoder == DECODE_FSM) {
+			//a tree that is a lone leaf has no states, so the table decoder takes it
+			if(FlatHuffTree.isLeaf(root.root())) {
+				return new TableDecoder(root);
 			}
-			
-			//if the bit read is 0 (internal node), call recursive algorithm to for HuffTree to left and HuffTree to right, returning a new HuffNode
-			if(bits == 0) {
-				HuffNode left = readTreeHeader(in);
-				HuffNode right = readTreeHeader(in);
-				return new HuffNode(0, 0, left, right);
+			FsmDecoder fsm = new FsmDecoder(root);
+			if(myDebugLevel >= DEBUG_LOW) {
+				System.out.printf("state machine: %d states, %d bytes of tables\n", root.internalNodes(), fsm.memoryBytes());
 			}
-			
-			//otherwise, the bit is a leaf, signifying the end of the tree
-			else {
-				int value = in.readBits(BITS_PER_WORD + 1);
-				return new HuffNode(value, 0, null, null);
+			return fsm;
+		}
+		return (in, out) -> walkTree(root, in, out);
+	}
+	
+	private HuffDecoder trainedDecoder(int id) {
+		HuffDecoder decoder = myTrainedDecoders.get(id);
+		if(decoder == null) {
+			TrainedTable table = TableRegistry.shared().byId(id);
+			if(table == null) {
+				throw new HuffException("no trained table with id " + id);
 			}
+			decoder = makeDecoder(table.tree());
+			myTrainedDecoders.put(id, decoder);
 		}
+		return decoder;
 	}
 	
-	private void readCompressedBits(HuffNode root, BitInputStream in, BitOutputStream out) {
-		HuffNode current = root;
+	private void walkTree(FlatHuffTree root, BitInputStream in, BitOutputStream out) {
+		int[] children = root.children();
+		int current = root.root();
+		
+		//a tree that is a lone leaf gives its symbol a one-bit code, see FlatHuffTree.lengths
+		if(FlatHuffTree.isLeaf(current)) {
+			while(true) {
+				if(in.readBits(1) == -1) {
+					throw new HuffException("bad input, no PSEUDO_EOF");
+				}
+				if(FlatHuffTree.symbol(current) == PSEUDO_EOF) {
+					return;
+				}
+				out.writeBits(BITS_PER_WORD, FlatHuffTree.symbol(current));
+			}
+		}
 		
 		while(true) {
 			//read 1 bit
@@ -225,27 +709,20 @@ public class HuffProcessor {
 			}
 			
 			else {
-				//path dictates to go left
-				if(bits == 0) {
-					current = current.myLeft;
-				}
-				
-				//path dictates to go right
-				else {
-					current = current.myRight;
-				}
+				//path dictates to go left (bits == 0) or right (bits == 1)
+				current = children[2 * current + bits];
 				
 				//if at a leaf
-				if(current.myLeft == null && current.myRight == null) {
+				if(FlatHuffTree.isLeaf(current)) {
 					//if value stored in leaf is PSEUDO_EOF, break out of if statement
-					if(current.myValue == PSEUDO_EOF) {
+					if(FlatHuffTree.symbol(current) == PSEUDO_EOF) {
 						break;
 					}
 					
 					//else, write out character stored in leaf
 					else {
-						out.writeBits(BITS_PER_WORD, current.myValue);
-						current = root;
+						out.writeBits(BITS_PER_WORD, FlatHuffTree.symbol(current));
+						current = root.root();
 					}
 				}
 			}
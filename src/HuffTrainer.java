@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trains a table for HUFF_TRAINED on sample files and writes it to the
+ * registry directory, where TableRegistry finds it at the next startup.
+ * <P>
+ * Run as: HuffTrainer id name file... [-max length]
+ * <P>
+ * The table is written to name.hft in TableRegistry.directory(). For
+ * each sample file the trained code's size is printed next to the size
+ * of the file's own HUFF_CANON code, header included.
+ * <P>
+ * Run as: HuffTrainer -check
+ * <P>
+ * Compresses a message with each registered table, then decodes it in
+ * a second JVM started in the temporary directory, to check that the
+ * tables are found without help from the working directory.
+ */
+
+public class HuffTrainer {
+
+	private static final String DECODE = "-decode";
+	private static final String CHECK_MESSAGE = "Trained tables must not depend on the working directory.\n";
+
+	public static void main(String[] args) {
+		if (args.length == 1 && args[0].equals("-check")) {
+			check();
+			return;
+		}
+		if (args.length == 1 && args[0].equals(DECODE)) {
+			new HuffProcessor().decompress(new BitInputStream(System.in), new BitOutputStream(System.out));
+			return;
+		}
+		int files = args.length;
+		int maxLength = 0;
+		if (files >= 2 && args[files - 2].equals("-max")) {
+			maxLength = Integer.parseInt(args[files - 1]);
+			files -= 2;
+		}
+		if (files < 3) {
+			System.err.println("usage: HuffTrainer id name file... [-max length], or HuffTrainer -check");
+			return;
+		}
+		int id = Integer.parseInt(args[0]);
+		String name = args[1];
+
+		long[] counts = new long[HuffProcessor.ALPH_SIZE + 1];
+		for (int k = 2; k < files; k++) {
+			ByteCounter counter = new ByteCounter();
+			BitInputStream in = new BitInputStream(new File(args[k]));
+			counter.add(in);
+			in.close();
+			counter.addTo(counts);
+		}
+		TrainedTable table = TrainedTable.train(id, name, ByteCounter.fit(counts), maxLength);
+
+		File directory = TableRegistry.directory();
+		directory.mkdirs();
+		File outf = new File(directory, name + TableRegistry.SUFFIX);
+		BitOutputStream out = new BitOutputStream(outf);
+		table.write(out);
+		out.close();
+		System.out.printf("table %s (id %d) written to %s\n", name, id, outf.getPath());
+
+		for (int k = 2; k < files; k++) {
+			long[] exact = new long[HuffProcessor.ALPH_SIZE + 1];
+			exact[HuffProcessor.PSEUDO_EOF] = 1;
+			ByteCounter counter = new ByteCounter();
+			BitInputStream in = new BitInputStream(new File(args[k]));
+			counter.add(in);
+			in.close();
+			counter.addTo(exact);
+			int[] fileCounts = ByteCounter.fit(exact);
+
+			int[] own = FlatHuffTree.fromCounts(fileCounts).lengths();
+			BitOutputStream header = new BitOutputStream(new ByteArrayOutputStream());
+			CanonicalCode.writeLengths(own, header);
+			long trained = 2 * HuffProcessor.BITS_PER_INT + LengthLimitedCode.encodedBits(fileCounts, table.lengths());
+			long canon = HuffProcessor.BITS_PER_INT + header.bitsWritten() + LengthLimitedCode.encodedBits(fileCounts, own);
+			System.out.printf("%s: trained %d bits, own code %d bits\n", args[k], trained, canon);
+		}
+	}
+
+	/**
+	 * Round-trip a message through every registered table, decoding in a
+	 * child JVM whose working directory is the temporary directory
+	 * @throws HuffException if there are no tables or a message does not
+	 * come back unchanged
+	 */
+	private static void check() {
+		List<String> names = TableRegistry.shared().names();
+		if (names.isEmpty()) {
+			throw new HuffException("no trained tables in " + TableRegistry.directory().getAbsolutePath());
+		}
+		byte[] message = CHECK_MESSAGE.getBytes(StandardCharsets.US_ASCII);
+		for (String name : names) {
+			HuffProcessor hp = new HuffProcessor();
+			hp.setFormat(HuffProcessor.HUFF_TRAINED);
+			hp.setTable(name);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			hp.compress(new BitInputStream(new ByteArrayInputStream(message)), new BitOutputStream(compressed));
+
+			byte[] decoded = decodeElsewhere(compressed.toByteArray());
+			if (!Arrays.equals(message, decoded)) {
+				throw new HuffException("table " + name + " does not decode from another working directory");
+			}
+			System.out.printf("table %s decodes from %s\n", name, System.getProperty("java.io.tmpdir"));
+		}
+	}
+
+	/**
+	 * Run HuffTrainer -decode in a new JVM with the same classpath, made
+	 * absolute, and the same table override if any
+	 * @return what the child wrote
+	 */
+	private static byte[] decodeElsewhere(byte[] compressed) {
+		List<String> entries = new ArrayList<>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			entries.add(new File(entry).getAbsolutePath());
+		}
+		List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(String.join(File.pathSeparator, entries));
+		String override = System.getProperty(TableRegistry.DIRECTORY_PROPERTY);
+		if (override != null) {
+			command.add("-D" + TableRegistry.DIRECTORY_PROPERTY + "=" + new File(override).getAbsolutePath());
+		}
+		command.add(HuffTrainer.class.getName());
+		command.add(DECODE);
+
+		try {
+			Process child = new ProcessBuilder(command).directory(new File(System.getProperty("java.io.tmpdir")))
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			try (OutputStream toChild = child.getOutputStream()) {
+				toChild.write(compressed);
+			}
+			byte[] decoded;
+			try (InputStream fromChild = child.getInputStream()) {
+				decoded = fromChild.readAllBytes();
+			}
+			if (child.waitFor() != 0) {
+				throw new HuffException("decoding JVM exited with status " + child.exitValue());
+			}
+			return decoded;
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new HuffException("interrupted while decoding");
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/**
+ * Interleaved multi-stream Huffman coding. Input is cut into blocks and
+ * symbol i of a block is coded into sub-stream i % STREAMS, so the
+ * decoder can advance STREAMS independent bit cursors in one loop
+ * instead of waiting on each code length in turn.
+ * <P>
+ * Layout following the magic number HUFF_INTERLEAVED:
+ * <pre>
+ *   code lengths        as written by CanonicalCode.writeLengths
+ *   per block:
+ *     32 bits           number of words in the block, 0 ends the stream
+ *     STREAMS * 32 bits size in bytes of each sub-stream
+ *     sub-stream bytes  each sub-stream padded to a whole byte
+ * </pre>
+ * All sub-streams share one canonical code whose lengths are limited so
+ * that every code resolves with a single table lookup.
+ */
+
+public class InterleavedCodec {
+
+	public static final int STREAMS = 4;
+	public static final int DEFAULT_MAX_CODE_LENGTH = 11;
+	public static final int MAX_CODE_LENGTH = 15;
+	public static final int BLOCK_SIZE = 1 << 18;
+
+	private static final int LENGTH_MASK = 0xff;
+
+	private final int[] myLengths;
+	private final long[] myCodes;
+	private final int myTableBits;
+	private int[] myTable;
+
+	/**
+	 * Construct codec for a set of code lengths
+	 * @param lengths is the code length of each symbol, 0 if absent
+	 * @throws HuffException if a code is longer than MAX_CODE_LENGTH
+	 */
+	public InterleavedCodec(int[] lengths) {
+		int maxLength = 0;
+		for (int len : lengths) {
+			maxLength = Math.max(maxLength, len);
+		}
+		if (maxLength > MAX_CODE_LENGTH) {
+			throw new HuffException("interleaved streams need codes of at most " + MAX_CODE_LENGTH + " bits");
+		}
+		myLengths = lengths;
+		myCodes = CanonicalCode.codesFromLengths(lengths);
+		myTableBits = maxLength;
+	}
+
+	/**
+	 * Read the code lengths that follow the magic number
+	 * @param in is positioned just after the magic number
+	 * @return codec for the lengths read
+	 */
+	public static InterleavedCodec readHeader(BitInputStream in) {
+		return new InterleavedCodec(CanonicalCode.readLengths(in));
+	}
+
+	/**
+	 * Write the code lengths shared by every sub-stream
+	 * @param out is positioned just after the magic number
+	 */
+	public void writeHeader(BitOutputStream out) {
+		CanonicalCode.writeLengths(myLengths, out);
+	}
+
+	/**
+	 * Encode every word of in as interleaved blocks, then the end marker
+	 * @param in is the stream of words to compress
+	 * @param out is where blocks are written
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		byte[] block = new byte[BLOCK_SIZE];
+		byte[][] streams = new byte[STREAMS][];
+		int[] sizes = new int[STREAMS];
+		for (int k = 0; k < STREAMS; k++) {
+			streams[k] = new byte[(BLOCK_SIZE / STREAMS + 1) * MAX_CODE_LENGTH / 8 + 8];
+		}
+
+		while (true) {
+			int n = 0;
+			int read;
+			while (n < BLOCK_SIZE && (read = in.readBytes(block, n, BLOCK_SIZE - n)) != -1) {
+				n += read;
+			}
+			if (n == 0) break;
+
+			for (int k = 0; k < STREAMS; k++) {
+				sizes[k] = encodeStream(block, n, k, streams[k]);
+			}
+			out.writeBits(HuffProcessor.BITS_PER_INT, n);
+			for (int k = 0; k < STREAMS; k++) {
+				out.writeBits(HuffProcessor.BITS_PER_INT, sizes[k]);
+			}
+			for (int k = 0; k < STREAMS; k++) {
+				out.writeBytes(streams[k], 0, sizes[k]);
+			}
+			if (n < BLOCK_SIZE) break;
+		}
+		out.writeBits(HuffProcessor.BITS_PER_INT, 0);
+	}
+
+	/**
+	 * Code words first, first + STREAMS, ... of block into dest
+	 * @return number of bytes used in dest
+	 */
+	private int encodeStream(byte[] block, int n, int first, byte[] dest) {
+		long buffer = 0;
+		int count = 0;
+		int size = 0;
+		for (int i = first; i < n; i += STREAMS) {
+			int sym = block[i] & 0xff;
+			buffer = (buffer << myLengths[sym]) | myCodes[sym];
+			count += myLengths[sym];
+			while (count >= 8) {
+				count -= 8;
+				dest[size++] = (byte) (buffer >>> count);
+			}
+		}
+		if (count > 0) {
+			dest[size++] = (byte) (buffer << (8 - count));
+		}
+		return size;
+	}
+
+	/**
+	 * Read exactly size bytes into bytes[0..size)
+	 * @throws HuffException if the stream ends first
+	 */
+	private static void readFully(byte[] bytes, int size, BitInputStream in) {
+		int count = 0;
+		while (count < size) {
+			int read = in.readBytes(bytes, count, size - count);
+			if (read == -1) {
+				throw new HuffException("bad input, sub-stream is truncated");
+			}
+			count += read;
+		}
+	}
+
+	/**
+	 * Build the lookup table: entry symbol << 8 | length for every index
+	 * whose leading bits are the symbol's code
+	 */
+	private void buildTable() {
+		myTable = new int[1 << myTableBits];
+		for (int sym = 0; sym < myLengths.length; sym++) {
+			int len = myLengths[sym];
+			if (len == 0) continue;
+			int first = (int) myCodes[sym] << (myTableBits - len);
+			int entry = (sym << 8) | len;
+			for (int k = 0; k < (1 << (myTableBits - len)); k++) {
+				myTable[first + k] = entry;
+			}
+		}
+	}
+
+	/**
+	 * Decode blocks from in until the end marker, writing words to out
+	 * @param in is positioned just after the code lengths
+	 * @param out is where decoded words are written
+	 * @throws HuffException if a block is truncated or corrupt
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		if (myTable == null) {
+			buildTable();
+		}
+		int[] sizes = new int[STREAMS];
+		byte[] data = new byte[0];
+		byte[] block = new byte[0];
+
+		while (true) {
+			int n = in.readBits(HuffProcessor.BITS_PER_INT);
+			if (n == -1) {
+				throw new HuffException("bad input, no end of blocks");
+			}
+			if (n == 0) break;
+
+			long total = 0;
+			for (int k = 0; k < STREAMS; k++) {
+				sizes[k] = in.readBits(HuffProcessor.BITS_PER_INT);
+				if (sizes[k] < 0) {
+					throw new HuffException("bad input, block header is truncated");
+				}
+				total += sizes[k];
+			}
+
+			//no sub-stream can be longer than its words coded at the longest code length
+			if (n < 0 || n > BLOCK_SIZE || total > (long) n * MAX_CODE_LENGTH / 8 + STREAMS) {
+				throw new HuffException("bad input, block sizes are corrupt");
+			}
+			if (data.length < total) data = new byte[(int) total];
+			if (block.length < n) block = new byte[n];
+
+			readFully(data, (int) total, in);
+			decodeBlock(data, sizes, block, n);
+			out.writeBytes(block, 0, n);
+		}
+	}
+
+	/**
+	 * Decode n words from the sub-streams packed one after another in
+	 * data, advancing all four cursors each round
+	 */
+	private void decodeBlock(byte[] data, int[] sizes, byte[] block, int n) {
+		int[] table = myTable;
+		int bits = myTableBits;
+		int mask = (1 << bits) - 1;
+
+		int end0 = sizes[0];
+		int end1 = end0 + sizes[1];
+		int end2 = end1 + sizes[2];
+		int end3 = end2 + sizes[3];
+		int p0 = 0, p1 = end0, p2 = end1, p3 = end2;
+		long b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+		int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+
+		int rounds = n / STREAMS;
+		int i = 0;
+		for (int r = 0; r < rounds; r++) {
+			if (c0 < bits) {
+				while (c0 <= 56 && p0 < end0) { b0 = (b0 << 8) | (data[p0++] & 0xff); c0 += 8; }
+			}
+			if (c1 < bits) {
+				while (c1 <= 56 && p1 < end1) { b1 = (b1 << 8) | (data[p1++] & 0xff); c1 += 8; }
+			}
+			if (c2 < bits) {
+				while (c2 <= 56 && p2 < end2) { b2 = (b2 << 8) | (data[p2++] & 0xff); c2 += 8; }
+			}
+			if (c3 < bits) {
+				while (c3 <= 56 && p3 < end3) { b3 = (b3 << 8) | (data[p3++] & 0xff); c3 += 8; }
+			}
+
+			//past the end of a sub-stream the peek is padded with zeros; the count check catches overruns
+			int e0 = table[(int) (c0 >= bits ? b0 >>> (c0 - bits) : b0 << (bits - c0)) & mask];
+			int e1 = table[(int) (c1 >= bits ? b1 >>> (c1 - bits) : b1 << (bits - c1)) & mask];
+			int e2 = table[(int) (c2 >= bits ? b2 >>> (c2 - bits) : b2 << (bits - c2)) & mask];
+			int e3 = table[(int) (c3 >= bits ? b3 >>> (c3 - bits) : b3 << (bits - c3)) & mask];
+			c0 -= e0 & LENGTH_MASK;
+			c1 -= e1 & LENGTH_MASK;
+			c2 -= e2 & LENGTH_MASK;
+			c3 -= e3 & LENGTH_MASK;
+			if ((c0 | c1 | c2 | c3) < 0) {
+				throw new HuffException("bad input, sub-stream is truncated");
+			}
+
+			block[i] = (byte) (e0 >>> 8);
+			block[i + 1] = (byte) (e1 >>> 8);
+			block[i + 2] = (byte) (e2 >>> 8);
+			block[i + 3] = (byte) (e3 >>> 8);
+			i += STREAMS;
+		}
+
+		//the last n % STREAMS words come from the first sub-streams
+		if (i < n) {
+			while (c0 <= 56 && p0 < end0) { b0 = (b0 << 8) | (data[p0++] & 0xff); c0 += 8; }
+			int e0 = table[(int) (c0 >= bits ? b0 >>> (c0 - bits) : b0 << (bits - c0)) & mask];
+			c0 -= e0 & LENGTH_MASK;
+			block[i++] = (byte) (e0 >>> 8);
+		}
+		if (i < n) {
+			while (c1 <= 56 && p1 < end1) { b1 = (b1 << 8) | (data[p1++] & 0xff); c1 += 8; }
+			int e1 = table[(int) (c1 >= bits ? b1 >>> (c1 - bits) : b1 << (bits - c1)) & mask];
+			c1 -= e1 & LENGTH_MASK;
+			block[i++] = (byte) (e1 >>> 8);
+		}
+		if (i < n) {
+			while (c2 <= 56 && p2 < end2) { b2 = (b2 << 8) | (data[p2++] & 0xff); c2 += 8; }
+			int e2 = table[(int) (c2 >= bits ? b2 >>> (c2 - bits) : b2 << (bits - c2)) & mask];
+			c2 -= e2 & LENGTH_MASK;
+			block[i++] = (byte) (e2 >>> 8);
+		}
+		if ((c0 | c1 | c2) < 0) {
+			throw new HuffException("bad input, sub-stream is truncated");
+		}
+	}
+}
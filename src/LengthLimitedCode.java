@@ -0,0 +1,120 @@
+/**
+ * Builds optimal prefix-code lengths subject to a maximum code length
+ * using the package-merge algorithm of Larmore and Hirschberg.
+ * <P>
+ * Unbounded Huffman trees can grow deeper than the 32 bits the bit
+ * streams write at once, and deep codes defeat fixed-size decode tables.
+ * With a limit of L bits, package-merge finds the lengths with the
+ * smallest total encoded size among all codes whose lengths are at most L.
+ * <P>
+ * Level j (counting down from L-1 to 0) holds the symbols sorted by
+ * weight merged with packages formed by pairing adjacent items of the
+ * level below. Choosing the 2n-2 cheapest items at the top level and
+ * following packages downward gives each symbol's code length as the
+ * number of levels it is chosen at.
+ */
+
+import java.util.Arrays;
+
+public class LengthLimitedCode {
+
+	/**
+	 * Compute length-limited code lengths for the symbol counts
+	 * @param counts is the number of occurrences of each symbol
+	 * @param maxLength is the longest code allowed
+	 * @return code length of each symbol, 0 for symbols with zero count
+	 * @throws HuffException if maxLength bits cannot give every symbol a code
+	 */
+	public static int[] lengths(int[] counts, int maxLength) {
+		int[] lengths = new int[counts.length];
+
+		//order the occurring symbols by count, ties by symbol, so output is deterministic
+		int n = 0;
+		for (int count : counts) {
+			if (count > 0) n++;
+		}
+		Integer[] order = new Integer[n];
+		for (int sym = 0, k = 0; sym < counts.length; sym++) {
+			if (counts[sym] > 0) order[k++] = sym;
+		}
+		Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[a], counts[b]) : Integer.compare(a, b));
+
+		if (n == 1) {
+			lengths[order[0]] = 1;
+			return lengths;
+		}
+		if (maxLength < 1 || maxLength < 32 - Integer.numberOfLeadingZeros(n - 1)) {
+			throw new HuffException(n + " symbols need codes longer than " + maxLength + " bits");
+		}
+
+		long[] leafWeight = new long[n];
+		for (int k = 0; k < n; k++) {
+			leafWeight[k] = counts[order[k]];
+		}
+
+		//item k at level j is a leaf index >= 0, or -1 for a package of two items from level j-1
+		int keep = 2 * n - 2;
+		int[][] items = new int[maxLength][];
+		int[] sizes = new int[maxLength];
+		long[] weights = leafWeight.clone();
+		items[0] = new int[n];
+		for (int k = 0; k < n; k++) {
+			items[0][k] = k;
+		}
+		sizes[0] = n;
+
+		for (int j = 1; j < maxLength; j++) {
+			int packages = sizes[j - 1] / 2;
+			long[] merged = new long[Math.min(keep, n + packages)];
+			int[] kinds = new int[merged.length];
+			int leaf = 0;
+			int pack = 0;
+			int size = 0;
+			while (size < merged.length) {
+				long packWeight = pack < packages ? weights[2 * pack] + weights[2 * pack + 1] : Long.MAX_VALUE;
+				if (leaf < n && leafWeight[leaf] <= packWeight) {
+					merged[size] = leafWeight[leaf];
+					kinds[size++] = leaf++;
+				}
+				else {
+					merged[size] = packWeight;
+					kinds[size++] = -1;
+					pack++;
+				}
+			}
+			items[j] = kinds;
+			sizes[j] = size;
+			weights = merged;
+		}
+
+		//walk down from the top level: leaves chosen gain a bit, packages choose two items below
+		int chosen = keep;
+		for (int j = maxLength - 1; j >= 0 && chosen > 0; j--) {
+			int packages = 0;
+			for (int k = 0; k < chosen; k++) {
+				if (items[j][k] >= 0) {
+					lengths[order[items[j][k]]]++;
+				}
+				else {
+					packages++;
+				}
+			}
+			chosen = 2 * packages;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Total number of bits needed to encode the counts with the lengths
+	 * @param counts is the number of occurrences of each symbol
+	 * @param lengths is the code length of each symbol
+	 * @return sum over symbols of count * length
+	 */
+	public static long encodedBits(int[] counts, int[] lengths) {
+		long bits = 0;
+		for (int sym = 0; sym < counts.length; sym++) {
+			bits += (long) counts[sym] * lengths[sym];
+		}
+		return bits;
+	}
+}
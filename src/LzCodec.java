@@ -0,0 +1,399 @@
+import java.util.Arrays;
+
+/**
+ * LZ77 compression in the style of DEFLATE. Each position is looked up
+ * in a hash chain of earlier positions that start with the same three
+ * words, and the longest match within the last WINDOW_SIZE words
+ * replaces the words it repeats by a (length, distance) pair. Repeated
+ * lines and phrases, common in text and logs, then cost a few bits
+ * each instead of a code per word.
+ * <P>
+ * Matches and the words left over are Huffman coded with two tables
+ * built per block: one for literal words, END_OF_BLOCK and the length
+ * codes, and one for the distance codes. As in DEFLATE, a length or
+ * distance code gives a range, and extra bits after it pick the value
+ * within the range, so each table stays small. Matches may reach back
+ * into earlier blocks; the tables start afresh in every block.
+ * <P>
+ * The search depth is the number of chain entries tried per position
+ * and trades speed for ratio. At depths of at least LAZY_SEARCH_DEPTH a
+ * match is only taken if the next position does not start a longer
+ * one, and the search stops early once a match is long enough.
+ * <P>
+ * Layout following the magic number HUFF_LZ:
+ * <pre>
+ *   per block:
+ *     1 bit             1 for a block, 0 ends the stream
+ *     lengths           literal/length code lengths as written by
+ *                       CanonicalCode.writeLengths, LITLEN_SYMBOLS of them
+ *     lengths           distance code lengths, DISTANCE_SYMBOLS of them
+ *     codes             per word, its literal code, or per match, its
+ *                       length code, extra bits, distance code, extra
+ *                       bits; then END_OF_BLOCK
+ * </pre>
+ */
+
+public class LzCodec {
+
+	public static final int WINDOW_SIZE = 1 << 15;
+	public static final int MIN_MATCH = 3;
+	public static final int MAX_MATCH = 258;
+
+	public static final int FAST_SEARCH_DEPTH = 4;
+	public static final int LAZY_SEARCH_DEPTH = 8;
+	public static final int DEFAULT_SEARCH_DEPTH = 32;
+	public static final int BEST_SEARCH_DEPTH = 1024;
+	public static final int MAX_SEARCH_DEPTH = 1 << 16;
+
+	public static final int END_OF_BLOCK = HuffProcessor.ALPH_SIZE;
+	public static final int LITLEN_SYMBOLS = END_OF_BLOCK + 30;
+	public static final int DISTANCE_SYMBOLS = 30;
+	public static final int MAX_CODE_LENGTH = 15;
+
+	private static final int BLOCK_SIZE = 1 << 17;
+	private static final int OUTPUT_CHUNK = 1 << 16;
+	private static final int HASH_BITS = 15;
+	private static final int NONE = -1;
+
+	//a match token holds the distance above LENGTH_BITS and the length below, a literal is just the word
+	private static final int LENGTH_BITS = 9;
+	private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+	private static final int DISTANCE_SHIFT = 16;
+	private static final int DISTANCE_MASK = (1 << DISTANCE_SHIFT) - 1;
+
+	private static final int[] LENGTH_BASE = {
+		3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+		35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = {
+		0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = {
+		1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+		257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = {
+		0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+		7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+
+	//code of each match length and distance, looked up directly
+	private static final int[] LENGTH_CODE = new int[MAX_MATCH + 1];
+	private static final int[] DISTANCE_CODE = new int[WINDOW_SIZE + 1];
+
+	static {
+		for (int code = 0; code < LENGTH_BASE.length; code++) {
+			for (int len = LENGTH_BASE[code]; len < LENGTH_BASE[code] + (1 << LENGTH_EXTRA[code]) && len <= MAX_MATCH; len++) {
+				LENGTH_CODE[len] = END_OF_BLOCK + 1 + code;
+			}
+		}
+		for (int code = 0; code < DISTANCE_BASE.length; code++) {
+			for (int d = DISTANCE_BASE[code]; d < DISTANCE_BASE[code] + (1 << DISTANCE_EXTRA[code]); d++) {
+				DISTANCE_CODE[d] = code;
+			}
+		}
+	}
+
+	private final int mySearchDepth;
+	private final int myNiceLength;
+	private final boolean myLazy;
+	private final int myMaxCodeLength;
+	private long myLiterals;
+	private long myMatches;
+
+	/**
+	 * Construct codec that tries up to searchDepth earlier positions
+	 * for each match
+	 * @param searchDepth is the number of chain entries tried, on
+	 * [1, MAX_SEARCH_DEPTH]
+	 * @param maxCodeLength is the longest code allowed, or 0 for
+	 * MAX_CODE_LENGTH
+	 */
+	public LzCodec(int searchDepth, int maxCodeLength) {
+		if (searchDepth < 1 || searchDepth > MAX_SEARCH_DEPTH) {
+			throw new HuffException("search depth must be on [1, " + MAX_SEARCH_DEPTH + "]");
+		}
+		mySearchDepth = searchDepth;
+		myNiceLength = (int) Math.min(MAX_MATCH, 8L * searchDepth);
+		myLazy = searchDepth >= LAZY_SEARCH_DEPTH;
+		myMaxCodeLength = maxCodeLength > 0 ? Math.min(maxCodeLength, MAX_CODE_LENGTH) : MAX_CODE_LENGTH;
+	}
+
+	/**
+	 * @return number of literal words written by encode
+	 */
+	public long literals() {
+		return myLiterals;
+	}
+
+	/**
+	 * @return number of matches written by encode
+	 */
+	public long matches() {
+		return myMatches;
+	}
+
+	/**
+	 * Encode every word of in as blocks, then the end marker
+	 * @param in is the stream of words to compress, at a byte boundary
+	 * @param out is positioned just after the magic number
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		//the window holds the previous WINDOW_SIZE words, then the block being parsed
+		byte[] window = new byte[WINDOW_SIZE + BLOCK_SIZE];
+		int[] prev = new int[window.length];
+		int[] head = new int[1 << HASH_BITS];
+		Arrays.fill(head, NONE);
+		int[] tokens = new int[BLOCK_SIZE];
+
+		int start = 0;
+		while (true) {
+			int n = BlockCodec.readBlock(in, window, start, BLOCK_SIZE);
+			if (n == 0) break;
+			int end = start + n;
+			int count = parse(window, start, end, head, prev, tokens);
+			writeBlock(tokens, count, out);
+
+			//slide the last WINDOW_SIZE words to the front, and every position with them;
+			//positions that fall off the front become NONE so they never wrap around
+			if (end > WINDOW_SIZE) {
+				int shift = end - WINDOW_SIZE;
+				System.arraycopy(window, shift, window, 0, WINDOW_SIZE);
+				System.arraycopy(prev, shift, prev, 0, WINDOW_SIZE);
+				for (int k = 0; k < WINDOW_SIZE; k++) {
+					prev[k] = Math.max(prev[k] - shift, NONE);
+				}
+				for (int k = 0; k < head.length; k++) {
+					head[k] = Math.max(head[k] - shift, NONE);
+				}
+				end = WINDOW_SIZE;
+			}
+			start = end;
+		}
+		out.writeBits(1, 0);
+	}
+
+	/**
+	 * Cut window[start..end) into literals and matches, adding each
+	 * position to the hash chains
+	 * @return number of tokens written
+	 */
+	private int parse(byte[] window, int start, int end, int[] head, int[] prev, int[] tokens) {
+		int count = 0;
+		int pos = start;
+		int carried = NONE;
+		while (pos < end) {
+			int match = 0;
+			if (end - pos >= MIN_MATCH) {
+				int h = hash(window, pos);
+				match = carried != NONE ? carried : longestMatch(window, pos, end, head[h], prev);
+				prev[pos] = head[h];
+				head[h] = pos;
+			}
+			carried = NONE;
+			int len = match >>> DISTANCE_SHIFT;
+
+			//lazy matching: a longer match one word later is worth a literal now
+			if (myLazy && len >= MIN_MATCH && len < myNiceLength && end - pos > MIN_MATCH) {
+				int next = longestMatch(window, pos + 1, end, head[hash(window, pos + 1)], prev);
+				if (next >>> DISTANCE_SHIFT > len) {
+					tokens[count++] = window[pos] & 0xff;
+					carried = next;
+					pos++;
+					continue;
+				}
+			}
+
+			if (len < MIN_MATCH) {
+				tokens[count++] = window[pos] & 0xff;
+				pos++;
+				continue;
+			}
+			tokens[count++] = (match & DISTANCE_MASK) << LENGTH_BITS | len;
+			int stop = Math.min(pos + len, end - MIN_MATCH + 1);
+			for (int p = pos + 1; p < stop; p++) {
+				int h = hash(window, p);
+				prev[p] = head[h];
+				head[h] = p;
+			}
+			pos += len;
+		}
+		return count;
+	}
+
+	/**
+	 * Follow the chain from candidate for the longest match with the
+	 * words at pos, ending no later than end
+	 * @return length of the match above DISTANCE_SHIFT and its distance
+	 * below, or 0 if there is no match of at least MIN_MATCH words
+	 */
+	private int longestMatch(byte[] window, int pos, int end, int candidate, int[] prev) {
+		int limit = Math.max(pos - WINDOW_SIZE, 0);
+		int maxLength = Math.min(MAX_MATCH, end - pos);
+		int best = MIN_MATCH - 1;
+		int distance = 0;
+		for (int chain = mySearchDepth; candidate >= limit && chain > 0; chain--, candidate = prev[candidate]) {
+			//a candidate can only beat the best so far if it matches one word past it
+			if (window[candidate + best] != window[pos + best] || window[candidate] != window[pos]) {
+				continue;
+			}
+			int len = 1;
+			while (len < maxLength && window[candidate + len] == window[pos + len]) {
+				len++;
+			}
+			if (len > best) {
+				best = len;
+				distance = pos - candidate;
+				if (len >= myNiceLength || len == maxLength) break;
+			}
+		}
+		return distance == 0 ? 0 : best << DISTANCE_SHIFT | distance;
+	}
+
+	private static int hash(byte[] window, int pos) {
+		int key = (window[pos] & 0xff) << 16 | (window[pos + 1] & 0xff) << 8 | (window[pos + 2] & 0xff);
+		return (key * 0x9e3779b1) >>> (32 - HASH_BITS);
+	}
+
+	/**
+	 * Build the block's two tables from its tokens, then write the
+	 * block as described in the class comment
+	 */
+	private void writeBlock(int[] tokens, int count, BitOutputStream out) {
+		int[] litCounts = new int[LITLEN_SYMBOLS];
+		int[] distCounts = new int[DISTANCE_SYMBOLS];
+		for (int k = 0; k < count; k++) {
+			int token = tokens[k];
+			if (token < HuffProcessor.ALPH_SIZE) {
+				litCounts[token]++;
+				continue;
+			}
+			litCounts[LENGTH_CODE[token & LENGTH_MASK]]++;
+			distCounts[DISTANCE_CODE[token >>> LENGTH_BITS]]++;
+		}
+		litCounts[END_OF_BLOCK] = 1;
+		//a block without matches still writes a distance table, so give it one code
+		boolean matched = false;
+		for (int c : distCounts) {
+			matched |= c > 0;
+		}
+		if (!matched) {
+			distCounts[0] = 1;
+		}
+		int[] litLengths = lengthsFor(litCounts);
+		int[] distLengths = lengthsFor(distCounts);
+
+		out.writeBits(1, 1);
+		CanonicalCode.writeLengths(litLengths, out);
+		CanonicalCode.writeLengths(distLengths, out);
+
+		//both tables end to end, distance code c as entry LITLEN_SYMBOLS + c, so one encoder writes both
+		int[] lengths = new int[LITLEN_SYMBOLS + DISTANCE_SYMBOLS];
+		long[] codes = new long[lengths.length];
+		System.arraycopy(litLengths, 0, lengths, 0, LITLEN_SYMBOLS);
+		System.arraycopy(distLengths, 0, lengths, LITLEN_SYMBOLS, DISTANCE_SYMBOLS);
+		System.arraycopy(CanonicalCode.codesFromLengths(litLengths), 0, codes, 0, LITLEN_SYMBOLS);
+		System.arraycopy(CanonicalCode.codesFromLengths(distLengths), 0, codes, LITLEN_SYMBOLS, DISTANCE_SYMBOLS);
+
+		BulkEncoder encoder = new BulkEncoder(codes, lengths, out);
+		for (int k = 0; k < count; k++) {
+			int token = tokens[k];
+			if (token < HuffProcessor.ALPH_SIZE) {
+				encoder.encodeSymbol(token);
+				myLiterals++;
+				continue;
+			}
+			int len = token & LENGTH_MASK;
+			int code = LENGTH_CODE[len] - END_OF_BLOCK - 1;
+			encoder.encodeSymbol(LENGTH_CODE[len]);
+			encoder.encodeBits(LENGTH_EXTRA[code], len - LENGTH_BASE[code]);
+			int distance = token >>> LENGTH_BITS;
+			code = DISTANCE_CODE[distance];
+			encoder.encodeSymbol(LITLEN_SYMBOLS + code);
+			encoder.encodeBits(DISTANCE_EXTRA[code], distance - DISTANCE_BASE[code]);
+			myMatches++;
+		}
+		encoder.encodeSymbol(END_OF_BLOCK);
+		encoder.finish();
+	}
+
+	/**
+	 * Code lengths for counts, sized to the alphabet, no longer than
+	 * the codec's limit
+	 */
+	private int[] lengthsFor(int[] counts) {
+		int[] lengths = Arrays.copyOf(FlatHuffTree.fromCounts(counts).lengths(), counts.length);
+		int depth = 0;
+		for (int len : lengths) {
+			depth = Math.max(depth, len);
+		}
+		if (depth > myMaxCodeLength) {
+			lengths = LengthLimitedCode.lengths(counts, myMaxCodeLength);
+		}
+		return lengths;
+	}
+
+	/**
+	 * Decode blocks from in, writing their words to out, until the end
+	 * marker
+	 * @param in is positioned just after the magic number
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream is truncated or a match
+	 * reaches back before the first word
+	 */
+	public static void decode(BitInputStream in, BitOutputStream out) {
+		//decoded words collect after the last WINDOW_SIZE words, and are written a chunk at a time
+		byte[] window = new byte[WINDOW_SIZE + OUTPUT_CHUNK];
+		int pos = 0;
+		int flushed = 0;
+		while (readExtra(in, 1) == 1) {
+			TableDecoder literals = decoderFor(CanonicalCode.readLengths(in, LITLEN_SYMBOLS));
+			TableDecoder distances = decoderFor(CanonicalCode.readLengths(in, DISTANCE_SYMBOLS));
+			while (true) {
+				if (pos > window.length - MAX_MATCH) {
+					out.writeBytes(window, flushed, pos - flushed);
+					System.arraycopy(window, pos - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+					pos = WINDOW_SIZE;
+					flushed = WINDOW_SIZE;
+				}
+				int sym = literals.decodeSymbol(in);
+				if (sym < END_OF_BLOCK) {
+					window[pos++] = (byte) sym;
+					continue;
+				}
+				if (sym == END_OF_BLOCK) break;
+
+				int code = sym - END_OF_BLOCK - 1;
+				int len = LENGTH_BASE[code] + readExtra(in, LENGTH_EXTRA[code]);
+				code = distances.decodeSymbol(in);
+				int distance = DISTANCE_BASE[code] + readExtra(in, DISTANCE_EXTRA[code]);
+				if (distance > pos || len > MAX_MATCH) {
+					throw new HuffException("bad input, match of " + len + " words at distance " + distance + " after " + pos);
+				}
+				//copy word by word, since a match may overlap the words it produces
+				for (int from = pos - distance, to = pos + len; pos < to; pos++, from++) {
+					window[pos] = window[from];
+				}
+			}
+		}
+		out.writeBytes(window, flushed, pos - flushed);
+	}
+
+	private static int readExtra(BitInputStream in, int bits) {
+		if (bits == 0) return 0;
+		int value = in.readBits(bits);
+		if (value == -1) {
+			throw new HuffException("bad input, stream ends inside a block");
+		}
+		return value;
+	}
+
+	/**
+	 * Table decoder no wider than the default or the longest code, so
+	 * the small distance table keeps a small table
+	 */
+	private static TableDecoder decoderFor(int[] lengths) {
+		int depth = 1;
+		for (int len : lengths) {
+			depth = Math.max(depth, len);
+		}
+		return new TableDecoder(FlatHuffTree.fromLengths(lengths), Math.min(depth, TableDecoder.DEFAULT_TABLE_BITS));
+	}
+}
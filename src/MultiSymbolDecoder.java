@@ -0,0 +1,96 @@
+/**
+ * Table-driven decoder that can emit several symbols per lookup. With
+ * average code lengths of 4-5 bits on English text, a 12-bit probe
+ * usually covers two or three complete codes.
+ * <P>
+ * Each entry records up to MAX_SYMBOLS decoded words packed into an
+ * int, the number of words, and the total bits they consume. Entries
+ * whose first code is PSEUDO_EOF or longer than the table fall back to
+ * the single-symbol lookup inherited from TableDecoder.
+ */
+
+public class MultiSymbolDecoder extends TableDecoder {
+
+	public static final int DEFAULT_TABLE_BITS = 12;
+	public static final int MAX_SYMBOLS = HuffProcessor.BITS_PER_INT / HuffProcessor.BITS_PER_WORD;
+
+	private final int[] myWords;
+	private final int[] myCounts;
+	private final int[] myBits;
+
+	/**
+	 * Construct decoder for the tree using the default table width
+	 * @param root is the root of the Huffman tree read from the header
+	 */
+	public MultiSymbolDecoder(FlatHuffTree root) {
+		this(root, DEFAULT_TABLE_BITS);
+	}
+
+	/**
+	 * Construct decoder for the tree using tables with 2^tableBits entries
+	 * @param root is the root of the Huffman tree read from the header
+	 * @param tableBits is the number of bits examined per lookup
+	 */
+	public MultiSymbolDecoder(FlatHuffTree root, int tableBits) {
+		super(root, tableBits);
+		int size = 1 << tableBits;
+		myWords = new int[size];
+		myCounts = new int[size];
+		myBits = new int[size];
+		for (int index = 0; index < size; index++) {
+			fillEntry(index);
+		}
+	}
+
+	/**
+	 * Decode as many whole codes as fit in the bits of index using the
+	 * single-symbol table on the bits left over after each code. Stops
+	 * before PSEUDO_EOF so that it is always handled by the fallback.
+	 */
+	private void fillEntry(int index) {
+		int mask = (1 << myTableBits) - 1;
+		int used = 0;
+		int count = 0;
+		int words = 0;
+		while (count < MAX_SYMBOLS) {
+			int entry = myTable[(index << used) & mask];
+			if (entry == LONG_CODE) break;
+
+			int length = entry & LENGTH_MASK;
+			int symbol = entry >>> 8;
+			if (length == 0 || used + length > myTableBits || symbol == HuffProcessor.PSEUDO_EOF) break;
+
+			words = (words << HuffProcessor.BITS_PER_WORD) | symbol;
+			count++;
+			used += length;
+		}
+		myWords[index] = words;
+		myCounts[index] = count;
+		myBits[index] = used;
+	}
+
+	/**
+	 * Decode symbols from in, writing each to out, until PSEUDO_EOF is
+	 * decoded. Output is identical to walking the tree bit by bit.
+	 * @param in is positioned at the first bit after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	@Override
+	public void decode(BitInputStream in, BitOutputStream out) {
+		while (true) {
+			int index = in.peekBits(myTableBits);
+			int count = myCounts[index];
+			if (count > 0 && in.skipBits(myBits[index]) != -1) {
+				out.writeBits(count * HuffProcessor.BITS_PER_WORD, myWords[index]);
+				continue;
+			}
+
+			int symbol = decodeSymbol(in);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				break;
+			}
+			out.writeBits(HuffProcessor.BITS_PER_WORD, symbol);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the bytes of a file on several threads. The file is memory
+ * mapped, at most MAP_SIZE bytes per mapping, and each mapping is split
+ * in halves until pieces are no larger than SEGMENT_SIZE. Every piece is
+ * counted into its own ByteCounter and the counts are summed as the
+ * tasks join, so threads never share a table. Counts are longs, so a
+ * file of any size is counted exactly.
+ */
+
+public class ParallelCounter {
+
+	public static final int SEGMENT_SIZE = 1 << 22;
+
+	private static final long MAP_SIZE = 1L << 30;
+	private static final int BYTE_VALUES = 1 << HuffProcessor.BITS_PER_WORD;
+
+	/**
+	 * Add the number of occurrences of each byte value in file to counts
+	 * @param file is the file to count
+	 * @param threads is the number of threads to count with, at least 1
+	 * @param counts is indexed by byte value and has at least 256 entries
+	 * @throws RuntimeException if the file can't be read
+	 */
+	public static void addTo(File file, int threads, long[] counts) {
+		if (threads < 1) {
+			throw new HuffException("need at least one thread to count with");
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_SIZE) {
+				int length = (int) Math.min(MAP_SIZE, size - position);
+				ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				long[] region = pool.invoke(new Segment(mapped, 0, length));
+				for (int value = 0; value < BYTE_VALUES; value++) {
+					counts[value] += region[value];
+				}
+			}
+		}
+		catch (IOException io) {
+			throw new RuntimeException(io);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Counts bytes [from, to) of a mapped region, splitting in half while
+	 * the range is larger than SEGMENT_SIZE
+	 */
+	private static class Segment extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer myBuffer;
+		private final int myFrom;
+		private final int myTo;
+
+		Segment(ByteBuffer buffer, int from, int to) {
+			myBuffer = buffer;
+			myFrom = from;
+			myTo = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (myTo - myFrom > SEGMENT_SIZE) {
+				int middle = myFrom + (myTo - myFrom) / 2;
+				Segment left = new Segment(myBuffer, myFrom, middle);
+				left.fork();
+				long[] counts = new Segment(myBuffer, middle, myTo).compute();
+				long[] other = left.join();
+				for (int value = 0; value < BYTE_VALUES; value++) {
+					counts[value] += other[value];
+				}
+				return counts;
+			}
+
+			//each task reads through its own view so positions are not shared
+			ByteBuffer view = myBuffer.duplicate();
+			view.position(myFrom);
+			byte[] chunk = new byte[Math.min(ByteCounter.CHUNK_SIZE, myTo - myFrom)];
+			ByteCounter counter = new ByteCounter();
+			for (int position = myFrom; position < myTo; position += chunk.length) {
+				int length = Math.min(chunk.length, myTo - position);
+				view.get(chunk, 0, length);
+				counter.add(chunk, 0, length);
+			}
+			long[] counts = new long[BYTE_VALUES];
+			counter.addTo(counts);
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+/**
+ * Counts of words from a large alphabet, such as 16-bit words, kept in
+ * an open-addressing hash table that only grows with the number of
+ * distinct words seen rather than with the size of the alphabet.
+ * Counts are longs, so no count wraps however long the input.
+ */
+
+public class SparseHistogram {
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 1 << 8;
+
+	private int[] myWords;
+	private long[] myCounts;
+	private int mySize;
+
+	/**
+	 * Construct histogram with every count 0
+	 */
+	public SparseHistogram() {
+		myWords = new int[INITIAL_CAPACITY];
+		myCounts = new long[INITIAL_CAPACITY];
+		Arrays.fill(myWords, EMPTY);
+		mySize = 0;
+	}
+
+	/**
+	 * Add one to the count of word
+	 * @param word is not negative
+	 */
+	public void add(int word) {
+		add(word, 1);
+	}
+
+	/**
+	 * Add amount to the count of word
+	 * @param word is not negative
+	 */
+	public void add(int word, int amount) {
+		int slot = slot(word);
+		if (myWords[slot] == EMPTY) {
+			myWords[slot] = word;
+			mySize++;
+			if (2 * mySize > myWords.length) {
+				grow();
+				slot = slot(word);
+			}
+		}
+		myCounts[slot] += amount;
+	}
+
+	/**
+	 * @return the count of word, 0 if it was never added
+	 */
+	public long count(int word) {
+		int slot = slot(word);
+		return myWords[slot] == EMPTY ? 0 : myCounts[slot];
+	}
+
+	/**
+	 * @return number of distinct words added
+	 */
+	public int size() {
+		return mySize;
+	}
+
+	/**
+	 * @return the distinct words added, in increasing order
+	 */
+	public int[] words() {
+		int[] words = new int[mySize];
+		int k = 0;
+		for (int word : myWords) {
+			if (word != EMPTY) words[k++] = word;
+		}
+		Arrays.sort(words);
+		return words;
+	}
+
+	/**
+	 * Find word's slot, or the empty slot where it belongs, probing
+	 * linearly from its hash
+	 */
+	private int slot(int word) {
+		int mask = myWords.length - 1;
+		int slot = (word * 0x9e3779b9) >>> (32 - Integer.numberOfTrailingZeros(myWords.length));
+		while (myWords[slot] != EMPTY && myWords[slot] != word) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		int[] words = myWords;
+		long[] counts = myCounts;
+		myWords = new int[2 * words.length];
+		myCounts = new long[2 * words.length];
+		Arrays.fill(myWords, EMPTY);
+		for (int k = 0; k < words.length; k++) {
+			if (words[k] != EMPTY) {
+				int slot = slot(words[k]);
+				myWords[slot] = words[k];
+				myCounts[slot] = counts[k];
+			}
+		}
+	}
+}
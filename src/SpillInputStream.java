@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Stream that can be rewound to its start without keeping all of it on
+ * the heap. Bytes are recorded as they are first read, the first
+ * MEMORY_LIMIT in memory and the rest in a temporary file that is
+ * deleted on close, and are replayed from there after rewind. Reading
+ * past what was recorded continues with the underlying stream.
+ */
+
+public class SpillInputStream extends InputStream {
+
+	public static final int MEMORY_LIMIT = 1 << 20;
+
+	private static final int INITIAL_MEMORY = 1 << 13;
+
+	private final InputStream mySource;
+	private byte[] myMemory;
+	private int myMemorySize;
+	private FileChannel mySpill;
+	private long mySpillSize;
+	private long myPosition;
+
+	/**
+	 * Construct stream recording what is read from source
+	 * @param source is the stream to read and record
+	 */
+	public SpillInputStream(InputStream source) {
+		mySource = source;
+		myMemory = new byte[0];
+		myMemorySize = 0;
+		mySpillSize = 0;
+		myPosition = 0;
+	}
+
+	/**
+	 * Go back to the first byte of the stream
+	 */
+	public void rewind() {
+		myPosition = 0;
+	}
+
+	/**
+	 * @return number of bytes recorded in the temporary file so far
+	 */
+	public long spilledBytes() {
+		return mySpillSize;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		int read = read(one, 0, 1);
+		return read == -1 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		//replay from memory, then from the spill file, then read new bytes
+		if (myPosition < myMemorySize) {
+			int count = (int) Math.min(length, myMemorySize - myPosition);
+			System.arraycopy(myMemory, (int) myPosition, bytes, offset, count);
+			myPosition += count;
+			return count;
+		}
+		long recorded = myMemorySize + mySpillSize;
+		if (myPosition < recorded) {
+			int count = (int) Math.min(length, recorded - myPosition);
+			int read = mySpill.read(ByteBuffer.wrap(bytes, offset, count), myPosition - myMemorySize);
+			myPosition += read;
+			return read;
+		}
+
+		int read = mySource.read(bytes, offset, length);
+		if (read <= 0) {
+			return read;
+		}
+		record(bytes, offset, read);
+		myPosition += read;
+		return read;
+	}
+
+	private void record(byte[] bytes, int offset, int length) throws IOException {
+		if (mySpill == null && myMemorySize < MEMORY_LIMIT) {
+			int count = Math.min(length, MEMORY_LIMIT - myMemorySize);
+			if (myMemorySize + count > myMemory.length) {
+				int size = Math.max(INITIAL_MEMORY, 2 * myMemory.length);
+				myMemory = Arrays.copyOf(myMemory, Math.min(MEMORY_LIMIT, Math.max(size, myMemorySize + count)));
+			}
+			System.arraycopy(bytes, offset, myMemory, myMemorySize, count);
+			myMemorySize += count;
+			offset += count;
+			length -= count;
+			if (length == 0) {
+				return;
+			}
+		}
+
+		if (mySpill == null) {
+			mySpill = FileChannel.open(Files.createTempFile("huff", ".spill"), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		ByteBuffer data = ByteBuffer.wrap(bytes, offset, length);
+		while (data.hasRemaining()) {
+			mySpillSize += mySpill.write(data, mySpillSize);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			mySource.close();
+		}
+		finally {
+			if (mySpill != null) {
+				mySpill.close();
+			}
+		}
+	}
+}
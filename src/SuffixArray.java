@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * Suffix array construction by induced sorting (SA-IS, Nong, Zhang and
+ * Chan), which takes time linear in the length of the text whatever its
+ * content, so long runs and repeats cost no more than random bytes.
+ * <P>
+ * The text is treated as ending with a sentinel smaller than every
+ * byte. Suffixes are classified as S-type (smaller than the suffix
+ * after them) or L-type; the leftmost S-type suffixes of each run (LMS)
+ * are sorted first, recursively when two LMS substrings are equal, and
+ * the order of every other suffix is induced from them in two scans.
+ */
+
+public class SuffixArray {
+
+	private static final int EMPTY = -1;
+
+	/**
+	 * Sort the suffixes of text[0..n) followed by the sentinel
+	 * @param text holds the bytes to sort
+	 * @param n is the number of bytes of text to use
+	 * @return start of each suffix in increasing order, n + 1 entries,
+	 * the first n for the sentinel alone
+	 */
+	public static int[] build(byte[] text, int n) {
+		int[] s = new int[n + 1];
+		for (int k = 0; k < n; k++) {
+			s[k] = (text[k] & 0xff) + 1;
+		}
+		s[n] = 0;
+		int[] sa = new int[n + 1];
+		sais(s, sa, n + 1, HuffProcessor.ALPH_SIZE + 1);
+		return sa;
+	}
+
+	/**
+	 * Fill sa with the suffix array of s[0..n), whose last entry is 0 and
+	 * occurs nowhere else, over the alphabet [0, alphabet)
+	 */
+	private static void sais(int[] s, int[] sa, int n, int alphabet) {
+		if (n == 1) {
+			sa[0] = 0;
+			return;
+		}
+
+		//true for S-type suffixes; the sentinel is S-type
+		boolean[] stype = new boolean[n];
+		stype[n - 1] = true;
+		for (int i = n - 2; i >= 0; i--) {
+			stype[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && stype[i + 1]);
+		}
+
+		//sort LMS substrings: place LMS suffixes at the ends of their buckets, then induce
+		int[] bucket = new int[alphabet];
+		Arrays.fill(sa, 0, n, EMPTY);
+		bucketEnds(s, n, bucket);
+		for (int i = 1; i < n; i++) {
+			if (isLms(stype, i)) {
+				sa[--bucket[s[i]]] = i;
+			}
+		}
+		induce(s, sa, n, stype, bucket);
+
+		//gather the sorted LMS positions at the front of sa
+		int lms = 0;
+		for (int k = 0; k < n; k++) {
+			if (isLms(stype, sa[k])) {
+				sa[lms++] = sa[k];
+			}
+		}
+
+		//name each LMS substring by its rank, equal substrings sharing a name
+		int[] names = new int[n];
+		Arrays.fill(names, EMPTY);
+		int name = 0;
+		int previous = EMPTY;
+		for (int k = 0; k < lms; k++) {
+			int position = sa[k];
+			if (previous == EMPTY || !equalLms(s, stype, position, previous)) {
+				name++;
+				previous = position;
+			}
+			names[position] = name - 1;
+		}
+
+		//the reduced string lists the names in text order; its last name is the sentinel's, 0
+		int[] reduced = new int[lms];
+		int[] lmsPositions = new int[lms];
+		for (int i = 0, j = 0; i < n; i++) {
+			if (names[i] != EMPTY) {
+				reduced[j] = names[i];
+				lmsPositions[j] = i;
+				j++;
+			}
+		}
+		int[] reducedSa = new int[lms];
+		if (name < lms) {
+			sais(reduced, reducedSa, lms, name);
+		}
+		else {
+			for (int k = 0; k < lms; k++) {
+				reducedSa[reduced[k]] = k;
+			}
+		}
+
+		//place LMS suffixes in their final order at the ends of their buckets, then induce the rest
+		Arrays.fill(sa, 0, n, EMPTY);
+		bucketEnds(s, n, bucket);
+		for (int k = lms - 1; k >= 0; k--) {
+			int position = lmsPositions[reducedSa[k]];
+			sa[--bucket[s[position]]] = position;
+		}
+		induce(s, sa, n, stype, bucket);
+	}
+
+	/**
+	 * Induce L-type suffixes left to right from bucket starts, then
+	 * S-type suffixes right to left from bucket ends
+	 */
+	private static void induce(int[] s, int[] sa, int n, boolean[] stype, int[] bucket) {
+		bucketStarts(s, n, bucket);
+		for (int k = 0; k < n; k++) {
+			int j = sa[k] - 1;
+			if (j >= 0 && !stype[j]) {
+				sa[bucket[s[j]]++] = j;
+			}
+		}
+		bucketEnds(s, n, bucket);
+		for (int k = n - 1; k >= 0; k--) {
+			int j = sa[k] - 1;
+			if (j >= 0 && stype[j]) {
+				sa[--bucket[s[j]]] = j;
+			}
+		}
+	}
+
+	private static boolean isLms(boolean[] stype, int i) {
+		return i > 0 && stype[i] && !stype[i - 1];
+	}
+
+	/**
+	 * @return true if the LMS substrings starting at a and b, each up to
+	 * and including the next LMS position, are equal in chars and types
+	 */
+	private static boolean equalLms(int[] s, boolean[] stype, int a, int b) {
+		for (int d = 0;; d++) {
+			if (s[a + d] != s[b + d] || stype[a + d] != stype[b + d]) {
+				return false;
+			}
+			if (d > 0 && (isLms(stype, a + d) || isLms(stype, b + d))) {
+				return isLms(stype, a + d) && isLms(stype, b + d);
+			}
+		}
+	}
+
+	private static void bucketStarts(int[] s, int n, int[] bucket) {
+		Arrays.fill(bucket, 0);
+		for (int i = 0; i < n; i++) {
+			bucket[s[i]]++;
+		}
+		int sum = 0;
+		for (int c = 0; c < bucket.length; c++) {
+			int count = bucket[c];
+			bucket[c] = sum;
+			sum += count;
+		}
+	}
+
+	private static void bucketEnds(int[] s, int n, int[] bucket) {
+		Arrays.fill(bucket, 0);
+		for (int i = 0; i < n; i++) {
+			bucket[s[i]]++;
+		}
+		int sum = 0;
+		for (int c = 0; c < bucket.length; c++) {
+			sum += bucket[c];
+			bucket[c] = sum;
+		}
+	}
+}
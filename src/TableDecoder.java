@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * Table-driven Huffman decoder. Rather than reading one bit at a time and
+ * following child links in the tree, the decoder looks at the next
+ * tableBits bits of the compressed stream and resolves the symbol and
+ * its code length with a single array lookup.
+ * <P>
+ * Codes longer than the table width are resolved by a table entry that
+ * points at the subtree reached after tableBits bits; decoding then
+ * continues one bit at a time from that subtree.
+ */
+
+public class TableDecoder implements HuffDecoder {
+
+	public static final int DEFAULT_TABLE_BITS = 11;
+	public static final int MAX_TABLE_BITS = 24;
+
+	protected static final int LENGTH_MASK = 0xff;
+	protected static final int LONG_CODE = -1;
+
+	protected final int myTableBits;
+	protected final int[] myTable;
+	private final int[] myChildren;
+	private final int[] mySubtrees;
+
+	/**
+	 * Construct decoder for the tree using the default table width
+	 * @param root is the root of the Huffman tree read from the header
+	 */
+	public TableDecoder(FlatHuffTree root) {
+		this(root, DEFAULT_TABLE_BITS);
+	}
+
+	/**
+	 * Construct decoder for the tree using a table with 2^tableBits entries
+	 * @param root is the root of the Huffman tree read from the header
+	 * @param tableBits is the number of bits resolved per table lookup
+	 */
+	public TableDecoder(FlatHuffTree root, int tableBits) {
+		if (tableBits < 1 || tableBits > MAX_TABLE_BITS) {
+			throw new HuffException("table bits must be on [1, " + MAX_TABLE_BITS + "]");
+		}
+		myTableBits = tableBits;
+		myTable = new int[1 << tableBits];
+		mySubtrees = new int[1 << tableBits];
+		myChildren = root.children();
+		if (FlatHuffTree.isLeaf(root.root())) {
+			//a lone leaf has a one-bit code, see FlatHuffTree.lengths, so every stream still ends
+			Arrays.fill(myTable, FlatHuffTree.symbol(root.root()) << 8 | 1);
+			return;
+		}
+		fillTable(root.root(), 0, 0);
+	}
+
+	/**
+	 * Fill every table entry whose leading bits match the path to node.
+	 * An entry packs symbol << 8 | code length, or LONG_CODE when the
+	 * code continues past the table width.
+	 */
+	private void fillTable(int node, int code, int depth) {
+		if (FlatHuffTree.isLeaf(node)) {
+			int span = myTableBits - depth;
+			int first = code << span;
+			int entry = (FlatHuffTree.symbol(node) << 8) | depth;
+			for (int k = 0; k < (1 << span); k++) {
+				myTable[first + k] = entry;
+			}
+			return;
+		}
+
+		if (depth == myTableBits) {
+			myTable[code] = LONG_CODE;
+			mySubtrees[code] = node;
+			return;
+		}
+
+		fillTable(myChildren[2 * node], code << 1, depth + 1);
+		fillTable(myChildren[2 * node + 1], (code << 1) | 1, depth + 1);
+	}
+
+	/**
+	 * Decode symbols from in, writing each to out, until PSEUDO_EOF is
+	 * decoded. Output is identical to walking the tree bit by bit.
+	 * @param in is positioned at the first bit after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		while (true) {
+			int symbol = decodeSymbol(in);
+			if (symbol == HuffProcessor.PSEUDO_EOF) {
+				break;
+			}
+			out.writeBits(HuffProcessor.BITS_PER_WORD, symbol);
+		}
+	}
+
+	/**
+	 * Decode the next symbol with one table lookup, or a lookup and a
+	 * subtree walk for codes longer than the table
+	 * @return the decoded symbol, possibly PSEUDO_EOF
+	 * @throws HuffException if the stream ends in the middle of a code
+	 */
+	protected int decodeSymbol(BitInputStream in) {
+		int index = in.peekBits(myTableBits);
+		int entry = myTable[index];
+		if (entry != LONG_CODE) {
+			if (in.skipBits(entry & LENGTH_MASK) == -1) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			return entry >>> 8;
+		}
+		if (in.skipBits(myTableBits) == -1) {
+			throw new HuffException("bad input, no PSEUDO_EOF");
+		}
+		return walkSubtree(mySubtrees[index], in);
+	}
+
+	/**
+	 * Resolve a code longer than the table width one bit at a time
+	 */
+	private int walkSubtree(int current, BitInputStream in) {
+		while (!FlatHuffTree.isLeaf(current)) {
+			int bit = in.readBits(1);
+			if (bit == -1) {
+				throw new HuffException("bad input, no PSEUDO_EOF");
+			}
+			current = myChildren[2 * current + bit];
+		}
+		return FlatHuffTree.symbol(current);
+	}
+}
@@ -0,0 +1,144 @@
+import java.io.File;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The trained tables known to this program, by ID and by name. The
+ * shared registry is loaded once, the first time it is asked for, from
+ * every file ending in SUFFIX in directory(). A table's name is its file
+ * name without the suffix. A missing directory gives an empty registry.
+ * <P>
+ * The bundled tables are found from where the code was loaded, never
+ * from the working directory, so a HUFF_TRAINED file decodes the same
+ * wherever the program is started. The system property
+ * DIRECTORY_PROPERTY overrides that location.
+ */
+
+public class TableRegistry {
+
+	public static final String DIRECTORY_PROPERTY = "huff.tables";
+	public static final String DEFAULT_DIRECTORY = "tables";
+	public static final String SUFFIX = ".hft";
+
+	private final Map<Integer, TrainedTable> myById;
+	private final Map<String, TrainedTable> myByName;
+
+	/**
+	 * Construct registry with no tables
+	 */
+	public TableRegistry() {
+		myById = new ConcurrentHashMap<>();
+		myByName = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return the registry loaded at startup
+	 */
+	public static TableRegistry shared() {
+		return Shared.REGISTRY;
+	}
+
+	/**
+	 * Find the table directory: the one named by DIRECTORY_PROPERTY if it
+	 * is set, otherwise DEFAULT_DIRECTORY in the directory holding the
+	 * program. That is the directory of the jar, or the parent of the
+	 * class directory, as for classes compiled into bin/ or beside their
+	 * sources in src/.
+	 * @return the directory, which may not exist yet
+	 */
+	public static File directory() {
+		String override = System.getProperty(DIRECTORY_PROPERTY);
+		if (override != null) {
+			return new File(override);
+		}
+		File home = null;
+		try {
+			CodeSource code = TableRegistry.class.getProtectionDomain().getCodeSource();
+			if (code != null && code.getLocation() != null) {
+				File location = new File(code.getLocation().toURI());
+				home = location.getParentFile();
+			}
+		}
+		catch (URISyntaxException | IllegalArgumentException | SecurityException e) {
+			home = null;
+		}
+		//with no code location to go on, the working directory is all that is left
+		return home == null ? new File(DEFAULT_DIRECTORY) : new File(home, DEFAULT_DIRECTORY);
+	}
+
+	/**
+	 * Load every table file in a directory
+	 * @param directory holds files ending in SUFFIX
+	 * @return registry of the tables read, empty if directory does not exist
+	 * @throws HuffException if a table is corrupt or two share an ID or name
+	 */
+	public static TableRegistry load(File directory) {
+		TableRegistry registry = new TableRegistry();
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return registry;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+			BitInputStream in = new BitInputStream(file);
+			try {
+				registry.add(TrainedTable.read(name, in));
+			}
+			finally {
+				in.close();
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Make a table available by its ID and name
+	 * @throws HuffException if another table has the same ID or name
+	 */
+	public void add(TrainedTable table) {
+		if (myById.putIfAbsent(table.id(), table) != null) {
+			throw new HuffException("two tables have id " + table.id());
+		}
+		if (myByName.putIfAbsent(table.name(), table) != null) {
+			myById.remove(table.id());
+			throw new HuffException("two tables are named " + table.name());
+		}
+	}
+
+	/**
+	 * @return the table with this ID, or null if there is none
+	 */
+	public TrainedTable byId(int id) {
+		return myById.get(id);
+	}
+
+	/**
+	 * @return the table with this name, or null if there is none
+	 */
+	public TrainedTable byName(String name) {
+		return myByName.get(name);
+	}
+
+	/**
+	 * @return names of every table, sorted
+	 */
+	public List<String> names() {
+		List<String> names = new ArrayList<>(myByName.keySet());
+		names.sort(null);
+		return names;
+	}
+
+	/**
+	 * Holds the shared registry so it is loaded by the first call to
+	 * shared and by no other
+	 */
+	private static class Shared {
+		static final TableRegistry REGISTRY = load(directory());
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * A canonical code trained ahead of time on sample data and shared by
+ * compressor and decompressor, so a stream names it by ID instead of
+ * carrying a header. Every word and PSEUDO_EOF has a code, including
+ * those never seen in training, so any input can be coded with it.
+ * <P>
+ * Codes and the tree are built once when the table is made; coding a
+ * message with the table only looks them up.
+ * <P>
+ * Layout of a table file is the 32-bit ID, then the code lengths as
+ * written by CanonicalCode.writeLengths.
+ */
+
+public class TrainedTable {
+
+	private final int myId;
+	private final String myName;
+	private final int[] myLengths;
+	private final long[] myCodes;
+	private final FlatHuffTree myTree;
+
+	/**
+	 * Construct table from code lengths
+	 * @param id is the number streams coded with this table store, not negative
+	 * @param name is what the table is selected by
+	 * @param lengths is the code length of each word and PSEUDO_EOF
+	 * @throws HuffException if the ID is negative or some word or
+	 * PSEUDO_EOF has no code
+	 */
+	public TrainedTable(int id, String name, int[] lengths) {
+		if (id < 0) {
+			throw new HuffException("table " + name + " has negative id " + id);
+		}
+		if (lengths.length != HuffProcessor.ALPH_SIZE + 1) {
+			throw new HuffException("table " + name + " needs " + (HuffProcessor.ALPH_SIZE + 1) + " code lengths");
+		}
+		for (int sym = 0; sym < lengths.length; sym++) {
+			if (lengths[sym] == 0) {
+				throw new HuffException("table " + name + " has no code for symbol " + sym);
+			}
+		}
+		myId = id;
+		myName = name;
+		myLengths = lengths.clone();
+		myCodes = CanonicalCode.codesFromLengths(myLengths);
+		myTree = FlatHuffTree.fromLengths(myLengths);
+	}
+
+	/**
+	 * Build the table that best codes data with the given counts,
+	 * treating words never counted as if seen once
+	 * @param counts is indexed by word and has at least ALPH_SIZE entries
+	 * @param maxLength is the longest code allowed, or 0 for no limit
+	 * @return the trained table
+	 */
+	public static TrainedTable train(int id, String name, int[] counts, int maxLength) {
+		int[] smoothed = new int[HuffProcessor.ALPH_SIZE + 1];
+		for (int sym = 0; sym < HuffProcessor.ALPH_SIZE; sym++) {
+			smoothed[sym] = Math.max(1, counts[sym]);
+		}
+		smoothed[HuffProcessor.PSEUDO_EOF] = 1;
+
+		int[] lengths = FlatHuffTree.fromCounts(smoothed).lengths();
+		if (maxLength > 0) {
+			int depth = 0;
+			for (int len : lengths) {
+				depth = Math.max(depth, len);
+			}
+			if (depth > maxLength) {
+				lengths = LengthLimitedCode.lengths(smoothed, maxLength);
+			}
+		}
+		return new TrainedTable(id, name, lengths);
+	}
+
+	/**
+	 * Read a table written by write
+	 * @param name is the name to give the table
+	 * @param in is positioned at the start of the table
+	 * @return the table read
+	 * @throws HuffException if the table is truncated or incomplete
+	 */
+	public static TrainedTable read(String name, BitInputStream in) {
+		int id = in.readBits(HuffProcessor.BITS_PER_INT);
+		if (id == -1) {
+			throw new HuffException("unable to read table " + name);
+		}
+		return new TrainedTable(id, name, CanonicalCode.readLengths(in));
+	}
+
+	/**
+	 * Write the ID and code lengths as described in the class comment
+	 */
+	public void write(BitOutputStream out) {
+		out.writeBits(HuffProcessor.BITS_PER_INT, myId);
+		CanonicalCode.writeLengths(myLengths, out);
+	}
+
+	public int id() {
+		return myId;
+	}
+
+	public String name() {
+		return myName;
+	}
+
+	/**
+	 * @return the code length of each word and PSEUDO_EOF, not to be modified
+	 */
+	public int[] lengths() {
+		return myLengths;
+	}
+
+	/**
+	 * @return the canonical code of each word and PSEUDO_EOF, not to be modified
+	 */
+	public long[] codes() {
+		return myCodes;
+	}
+
+	public FlatHuffTree tree() {
+		return myTree;
+	}
+}
@@ -0,0 +1,313 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Huffman coding of words wider than a byte. Input is cut into words of
+ * a width chosen per stream, so 16-bit samples or UTF-16 text are coded
+ * as whole units instead of as unrelated pairs of bytes. Input bits
+ * left over after the last whole word are stored as they are.
+ * <P>
+ * Words are counted in a SparseHistogram, and the tree is built over
+ * the ranks of the words that occur, 0 for the smallest, with
+ * PSEUDO_EOF ranked last. Nothing is sized by the full alphabet.
+ * <P>
+ * Layout following the magic number HUFF_WIDE:
+ * <pre>
+ *   5 bits            word width w, one of WORD_BITS
+ *   4 bits            number t of bits after the last word, less than w
+ *   t bits            those bits
+ *   17 bits           number n of distinct words
+ *   6 bits            maximum code length L
+ *   per word, in increasing order:
+ *     gamma code      word minus the previous word (or plus 1 for the
+ *                     first), Elias gamma coded
+ *     b bits          code length, b the bits needed to write L
+ *   b bits            code length of PSEUDO_EOF
+ *   codes             each word's code, then PSEUDO_EOF
+ * </pre>
+ */
+
+public class WideCodec {
+
+	public static final int[] WORD_BITS = { 8, 12, 16 };
+
+	private static final int WIDTH_BITS = 5;
+	private static final int TAIL_BITS = 4;
+	private static final int COUNT_BITS = 17;
+	private static final int MAX_LENGTH_BITS = 6;
+
+	private final int myWordBits;
+	private final int myTailBits;
+	private final int myTail;
+	private final int[] myWords;
+	private final int[] myLengths;
+
+	/**
+	 * Construct codec for a code over ranked words
+	 * @param wordBits is the width of each word
+	 * @param tailBits is the number of bits after the last word
+	 * @param tail is those bits, right-aligned
+	 * @param words is the distinct words, in increasing order
+	 * @param lengths is the code length of each word's rank, then of PSEUDO_EOF
+	 */
+	public WideCodec(int wordBits, int tailBits, int tail, int[] words, int[] lengths) {
+		checkWordBits(wordBits);
+		myWordBits = wordBits;
+		myTailBits = tailBits;
+		myTail = tail;
+		myWords = words;
+		myLengths = lengths;
+	}
+
+	/**
+	 * @throws HuffException unless wordBits is one of WORD_BITS
+	 */
+	public static void checkWordBits(int wordBits) {
+		for (int bits : WORD_BITS) {
+			if (bits == wordBits) return;
+		}
+		throw new HuffException("word width must be one of " + Arrays.toString(WORD_BITS));
+	}
+
+	/**
+	 * Count the words left in in and build the code for them
+	 * @param in is the stream to compress, at a byte boundary
+	 * @param wordBits is the width of each word, one of WORD_BITS
+	 * @param maxLength is the longest code allowed, or 0 for no limit
+	 * @return codec for in
+	 */
+	public static WideCodec fromInput(BitInputStream in, int wordBits, int maxLength) {
+		checkWordBits(wordBits);
+		SparseHistogram histogram = new SparseHistogram();
+		long tail = readWords(in, wordBits, histogram::add);
+
+		int[] words = histogram.words();
+		long[] exact = new long[words.length + 1];
+		for (int rank = 0; rank < words.length; rank++) {
+			exact[rank] = histogram.count(words[rank]);
+		}
+		exact[words.length] = 1;
+		int[] counts = ByteCounter.fit(exact);
+
+		int[] lengths = Arrays.copyOf(FlatHuffTree.fromCounts(counts).lengths(), counts.length);
+		if (maxLength > 0) {
+			int depth = 0;
+			for (int len : lengths) {
+				depth = Math.max(depth, len);
+			}
+			if (depth > maxLength) {
+				lengths = LengthLimitedCode.lengths(counts, maxLength);
+			}
+		}
+		return new WideCodec(wordBits, (int) (tail >>> 32), (int) tail, words, lengths);
+	}
+
+	/**
+	 * Cut the bytes left in in into words of wordBits, handing each to
+	 * sink in order
+	 * @return the number of bits left over in the upper half, and those
+	 * bits, right-aligned, in the lower half
+	 */
+	private static long readWords(BitInputStream in, int wordBits, IntConsumer sink) {
+		byte[] chunk = new byte[BulkEncoder.CHUNK_SIZE];
+		int mask = (1 << wordBits) - 1;
+		int register = 0;
+		int held = 0;
+		int read;
+		while ((read = in.readBytes(chunk, 0, chunk.length)) != -1) {
+			for (int k = 0; k < read; k++) {
+				//words are at least a byte wide, so each byte completes at most one
+				register = (register << HuffProcessor.BITS_PER_WORD) | (chunk[k] & 0xff);
+				held += HuffProcessor.BITS_PER_WORD;
+				if (held >= wordBits) {
+					held -= wordBits;
+					sink.accept((register >>> held) & mask);
+					register &= (1 << held) - 1;
+				}
+			}
+		}
+		return (long) held << 32 | register;
+	}
+
+	/**
+	 * Read the code that follows the magic number
+	 * @param in is positioned just after the magic number
+	 * @return codec for the code read
+	 * @throws HuffException if the header is truncated or corrupt
+	 */
+	public static WideCodec readHeader(BitInputStream in) {
+		int wordBits = readField(in, WIDTH_BITS);
+		checkWordBits(wordBits);
+		int tailBits = readField(in, TAIL_BITS);
+		if (tailBits >= wordBits) {
+			throw new HuffException("bad input, " + tailBits + " bits after the last word");
+		}
+		int tail = tailBits == 0 ? 0 : readField(in, tailBits);
+
+		int n = readField(in, COUNT_BITS);
+		if (n > 1 << wordBits) {
+			throw new HuffException("bad input, " + n + " distinct words of " + wordBits + " bits");
+		}
+		int maxLength = readField(in, MAX_LENGTH_BITS);
+		if (maxLength < 1) {
+			throw new HuffException("unable to read code lengths");
+		}
+		int width = bitsFor(maxLength);
+		int[] words = new int[n];
+		int[] lengths = new int[n + 1];
+		int previous = -1;
+		for (int rank = 0; rank < n; rank++) {
+			previous += readGamma(in);
+			if (previous >= 1 << wordBits) {
+				throw new HuffException("bad input, word " + previous + " is wider than " + wordBits + " bits");
+			}
+			words[rank] = previous;
+			lengths[rank] = readField(in, width);
+		}
+		lengths[n] = readField(in, width);
+		int[] countPerLength = new int[maxLength + 1];
+		for (int len : lengths) {
+			if (len < 1 || len > maxLength) {
+				throw new HuffException("bad code length " + len);
+			}
+			countPerLength[len]++;
+		}
+
+		//the same Kraft check as CanonicalCode.readLengths, a lone PSEUDO_EOF allowed a one-bit code
+		long left = 1;
+		int remaining = n + 1;
+		for (int len = 1; len <= maxLength && n > 0; len++) {
+			left = (left << 1) - countPerLength[len];
+			remaining -= countPerLength[len];
+			if (left < 0 || left > remaining) {
+				throw new HuffException("code lengths do not form a complete prefix code");
+			}
+		}
+		return new WideCodec(wordBits, tailBits, tail, words, lengths);
+	}
+
+	private static int readField(BitInputStream in, int bits) {
+		int value = in.readBits(bits);
+		if (value == -1) {
+			throw new HuffException("unable to read wide header");
+		}
+		return value;
+	}
+
+	/**
+	 * Read a positive number written by writeGamma
+	 */
+	private static int readGamma(BitInputStream in) {
+		int zeros = 0;
+		while (readField(in, 1) == 0) {
+			zeros++;
+			if (zeros > COUNT_BITS) {
+				throw new HuffException("bad input, gap code too long");
+			}
+		}
+		return zeros == 0 ? 1 : (1 << zeros) | readField(in, zeros);
+	}
+
+	/**
+	 * Write value, at least 1, as floor(log2 value) zeros followed by
+	 * value in binary
+	 */
+	private static void writeGamma(int value, BitOutputStream out) {
+		int bits = bitsFor(value);
+		if (bits > 1) {
+			out.writeBits(bits - 1, 0);
+		}
+		out.writeBits(bits, value);
+	}
+
+	private static int bitsFor(int value) {
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Write the code as described in the class comment
+	 */
+	public void writeHeader(BitOutputStream out) {
+		out.writeBits(WIDTH_BITS, myWordBits);
+		out.writeBits(TAIL_BITS, myTailBits);
+		if (myTailBits > 0) {
+			out.writeBits(myTailBits, myTail);
+		}
+		out.writeBits(COUNT_BITS, myWords.length);
+
+		int maxLength = 0;
+		for (int len : myLengths) {
+			maxLength = Math.max(maxLength, len);
+		}
+		if (maxLength > CanonicalCode.MAX_CODE_LENGTH) {
+			throw new HuffException("code length " + maxLength + " exceeds " + CanonicalCode.MAX_CODE_LENGTH);
+		}
+		out.writeBits(MAX_LENGTH_BITS, maxLength);
+		int width = bitsFor(maxLength);
+		int previous = -1;
+		for (int rank = 0; rank < myWords.length; rank++) {
+			writeGamma(myWords[rank] - previous, out);
+			previous = myWords[rank];
+			out.writeBits(width, myLengths[rank]);
+		}
+		out.writeBits(width, myLengths[myWords.length]);
+	}
+
+	/**
+	 * @return number of distinct words the code has
+	 */
+	public int words() {
+		return myWords.length;
+	}
+
+	/**
+	 * Encode every word of in, then PSEUDO_EOF. The bits after the last
+	 * word are in the header and are skipped here.
+	 * @param in is the stream counted by fromInput, read again from the start
+	 * @param out is positioned just after the header
+	 */
+	public void encode(BitInputStream in, BitOutputStream out) {
+		//ranks are stored one higher so a word never counted reads as -1
+		SparseHistogram ranks = new SparseHistogram();
+		for (int rank = 0; rank < myWords.length; rank++) {
+			ranks.add(myWords[rank], rank + 1);
+		}
+		BulkEncoder encoder = new BulkEncoder(CanonicalCode.codesFromLengths(myLengths), myLengths, out);
+		readWords(in, myWordBits, word -> {
+			int rank = (int) ranks.count(word) - 1;
+			if (rank < 0) {
+				throw new HuffException("no code for word " + word);
+			}
+			encoder.encodeSymbol(rank);
+		});
+		encoder.encodeSymbol(myWords.length);
+		encoder.finish();
+	}
+
+	/**
+	 * Decode words from in, writing each to out, until PSEUDO_EOF, then
+	 * write the bits after the last word
+	 * @param in is positioned just after the header
+	 * @param out is where decoded words are written
+	 * @throws HuffException if the stream ends before PSEUDO_EOF
+	 */
+	public void decode(BitInputStream in, BitOutputStream out) {
+		int depth = 1;
+		for (int len : myLengths) {
+			depth = Math.max(depth, len);
+		}
+		TableDecoder decoder = new TableDecoder(FlatHuffTree.fromLengths(myLengths),
+				Math.min(depth, TableDecoder.DEFAULT_TABLE_BITS));
+		int eof = myWords.length;
+		while (true) {
+			int rank = decoder.decodeSymbol(in);
+			if (rank == eof) {
+				break;
+			}
+			out.writeBits(myWordBits, myWords[rank]);
+		}
+		if (myTailBits > 0) {
+			out.writeBits(myTailBits, myTail);
+		}
+	}
+}